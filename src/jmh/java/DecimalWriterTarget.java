@@ -0,0 +1,91 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * the code bench.DecimalWriterBenchmark measures, it is in the default package to reach kparser's classes
+ * the numbers of every element of the anim are loaded and decomposed once, each benchmark writes all of them
+ */
+public class DecimalWriterTarget implements bench.DecimalWriterBenchmark.Target {
+
+	private float[] m1, m2, m3, m4, x, y;
+	private int elements;
+	private double[] scaleX, scaleY, angle;
+	private final StringBuilder builder = new StringBuilder();
+	private final DecimalWriter text = new DecimalWriter();
+
+	@Override
+	public void load(String build, String anim, String png) throws IOException {
+		Reader reader = new Reader(Path.of(build), Path.of(anim), new FileInputStream(png));
+		m1 = new float[1024];
+		m2 = new float[1024];
+		m3 = new float[1024];
+		m4 = new float[1024];
+		x = new float[1024];
+		y = new float[1024];
+		reader.visitANIMData(new ANIMVisitor() {
+			@Override
+			public void onElement(ANIMElement element) {
+				if (elements == m1.length) {
+					m1 = Arrays.copyOf(m1, elements * 2);
+					m2 = Arrays.copyOf(m2, elements * 2);
+					m3 = Arrays.copyOf(m3, elements * 2);
+					m4 = Arrays.copyOf(m4, elements * 2);
+					x = Arrays.copyOf(x, elements * 2);
+					y = Arrays.copyOf(y, elements * 2);
+				}
+				m1[elements] = element.m1;
+				m2[elements] = element.m2;
+				m3[elements] = element.m3;
+				m4[elements] = element.m4;
+				x[elements] = element.m5 * 0.5f;
+				y[elements] = -element.m6 * 0.5f;
+				elements++;
+			}
+		});
+		scaleX = new double[elements];
+		scaleY = new double[elements];
+		angle = new double[elements];
+		new MatrixDecomposer().decompose(m1, m2, m3, m4, 0, elements, scaleX, scaleY, angle);
+
+		System.out.printf("%n%d elements, %d chars with toString, %d exact, %d with 4,4,3 decimals%n",
+				elements, strings(), exact(), fixed());
+	}
+
+	@Override
+	public int strings() {
+		builder.setLength(0);
+		for (int i = 0; i < elements; i++) {
+			builder.append(Double.toString(angle[i]));
+			builder.append(Double.toString(scaleX[i]));
+			builder.append(Double.toString(scaleY[i]));
+			builder.append(Float.toString(x[i]));
+			builder.append(Float.toString(y[i]));
+		}
+		return builder.length();
+	}
+
+	@Override
+	public int exact() {
+		return write(-1, -1);
+	}
+
+	@Override
+	public int fixed() {
+		return write(4, 3);
+	}
+
+	private int write(int decimals, int positionDecimals) {
+		text.clear();
+		for (int i = 0; i < elements; i++) {
+			text.append(angle[i], decimals);
+			text.append(scaleX[i], decimals);
+			text.append(scaleY[i], decimals);
+			text.append(x[i], positionDecimals);
+			text.append(y[i], positionDecimals);
+		}
+		return text.length();
+	}
+
+}
@@ -0,0 +1,66 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * the code bench.MatrixDecomposerBenchmark measures, it is in the default package to reach kparser's classes
+ * the matrices of every element of the anim are loaded once, each benchmark decomposes all of them
+ */
+public class MatrixDecomposerTarget implements bench.MatrixDecomposerBenchmark.Target {
+
+	private float[] m1, m2, m3, m4;
+	private int elements;
+	private double[] scaleX, scaleY, angle;
+	private MatrixDecomposer warm;
+
+	@Override
+	public void load(String build, String anim, String png) throws IOException {
+		Reader reader = new Reader(Path.of(build), Path.of(anim), new FileInputStream(png));
+		m1 = new float[1024];
+		m2 = new float[1024];
+		m3 = new float[1024];
+		m4 = new float[1024];
+		reader.visitANIMData(new ANIMVisitor() {
+			@Override
+			public void onElement(ANIMElement element) {
+				if (elements == m1.length) {
+					m1 = Arrays.copyOf(m1, elements * 2);
+					m2 = Arrays.copyOf(m2, elements * 2);
+					m3 = Arrays.copyOf(m3, elements * 2);
+					m4 = Arrays.copyOf(m4, elements * 2);
+				}
+				m1[elements] = element.m1;
+				m2[elements] = element.m2;
+				m3[elements] = element.m3;
+				m4[elements] = element.m4;
+				elements++;
+			}
+		});
+		scaleX = new double[elements];
+		scaleY = new double[elements];
+		angle = new double[elements];
+		warm = new MatrixDecomposer();
+	}
+
+	@Override
+	public double[] inline() {
+		for (int i = 0; i < elements; i++) {
+			MatrixDecomposer.compute(m1[i], m2[i], m3[i], m4[i], scaleX, scaleY, angle, i);
+		}
+		return angle;
+	}
+
+	@Override
+	public double[] cold() {
+		new MatrixDecomposer().decompose(m1, m2, m3, m4, 0, elements, scaleX, scaleY, angle);
+		return angle;
+	}
+
+	@Override
+	public double[] warm() {
+		warm.decompose(m1, m2, m3, m4, 0, elements, scaleX, scaleY, angle);
+		return angle;
+	}
+
+}
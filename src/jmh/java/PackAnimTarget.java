@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.xml.stream.XMLStreamException;
+
+/*
+ * the code bench.PackAnimBenchmark measures, it is in the default package to reach kparser's classes
+ * generates the scml in a temporary directory and loads it once, the benchmark only builds the banks
+ */
+public class PackAnimTarget implements bench.PackAnimBenchmark.Target {
+
+	private static final int PARTS = 8;
+
+	private Path directory;
+	private ScmlConverter converter;
+
+	@Override
+	public void generate(int frames) throws IOException, XMLStreamException {
+		directory = Files.createTempDirectory("pack-anim");
+		Path scml = directory.resolve("synthetic.scml");
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(scml))) {
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<spriter_data scml_version=\"1.0\" generator=\"BrashMonkey Spriter\" generator_version=\"r11\">");
+			out.println("<folder id=\"0\">");
+			for (int part = 0; part < PARTS; part++) {
+				out.printf("<file id=\"%d\" name=\"part%d_0\" width=\"16\" height=\"16\" pivot_x=\"0.5\" pivot_y=\"0.5\"/>%n", part, part);
+			}
+			out.println("</folder>");
+			out.println("<entity id=\"0\" name=\"synthetic\">");
+			out.printf("<animation id=\"0\" name=\"anim\" length=\"%d\" interval=\"33\">%n", frames * 33);
+			out.println("<mainline>");
+			for (int frame = 0; frame < frames; frame++) {
+				out.printf("<key id=\"%d\" time=\"%d\">", frame, frame * 33);
+				for (int part = 0; part < PARTS; part++) {
+					out.printf("<object_ref id=\"%d\" timeline=\"%d\" key=\"%d\" z_index=\"%d\"/>", part, part, frame, PARTS - part);
+				}
+				out.println("</key>");
+			}
+			out.println("</mainline>");
+			for (int part = 0; part < PARTS; part++) {
+				out.printf("<timeline id=\"%d\" name=\"part%d_0\">%n", part, part);
+				for (int frame = 0; frame < frames; frame++) {
+					out.printf("<key id=\"%d\" time=\"%d\"><object folder=\"0\" file=\"%d\" x=\"%d\" y=\"%d\" angle=\"%d\"/></key>%n",
+							frame, frame * 33, part, frame % 20, part, frame % 360);
+				}
+				out.println("</timeline>");
+			}
+			out.println("</animation>");
+			out.println("</entity>");
+			out.println("</spriter_data>");
+		}
+
+		converter = new ScmlConverter(ScmlProject.load(scml));
+	}
+
+	@Override
+	public void delete() throws IOException {
+		Files.deleteIfExists(directory.resolve("synthetic.scml"));
+		Files.deleteIfExists(directory);
+	}
+
+	@Override
+	public ANIM buildANIM() {
+		// the atlas would have given the symbol table the part names
+		SymbolTable symbols = new SymbolTable();
+		for (int part = 0; part < PARTS; part++) {
+			symbols.intern("part" + part);
+		}
+		return converter.buildANIM(symbols);
+	}
+
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * compares writing the angle, scales and position of every element of a real anim with Double.toString and Float.toString,
+ * which is what Writer used to do, with DecimalWriter writing them exactly and with 4,4,3 decimals, see DecimalWriterTarget
+ * pass the kanim with -p build=x_build.bytes -p anim=x_anim.bytes -p png=x_0.png
+ * the number of chars written is printed once per fork so the sizes can be compared too
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecimalWriterBenchmark {
+
+	public interface Target {
+		void load(String build, String anim, String png) throws IOException;
+		int strings();
+		int exact();
+		int fixed();
+	}
+
+	@Param("")
+	public String build;
+	@Param("")
+	public String anim;
+	@Param("")
+	public String png;
+
+	private Target target;
+
+	@Setup
+	public void load() throws IOException {
+		if (build.isEmpty() || anim.isEmpty() || png.isEmpty()) {
+			throw new IllegalArgumentException("Pass the kanim to benchmark with -p build=... -p anim=... -p png=...");
+		}
+		target = Targets.create("DecimalWriterTarget", Target.class);
+		target.load(build, anim, png);
+	}
+
+	@Benchmark
+	public int strings() {
+		return target.strings();
+	}
+
+	@Benchmark
+	public int exact() {
+		return target.exact();
+	}
+
+	@Benchmark
+	public int fixed() {
+		return target.fixed();
+	}
+
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * compares decomposing every element's matrix inline, which is what Writer used to do,
+ * with MatrixDecomposer on the elements of a real anim, see MatrixDecomposerTarget
+ * pass the kanim with -p build=x_build.bytes -p anim=x_anim.bytes -p png=x_0.png
+ *
+ * cold gets a new decomposer for every pass over the anim like a conversion does,
+ * warm keeps one so it shows the cost of a cache hit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixDecomposerBenchmark {
+
+	public interface Target {
+		void load(String build, String anim, String png) throws IOException;
+		double[] inline();
+		double[] cold();
+		double[] warm();
+	}
+
+	@Param("")
+	public String build;
+	@Param("")
+	public String anim;
+	@Param("")
+	public String png;
+
+	private Target target;
+
+	@Setup
+	public void load() throws IOException {
+		if (build.isEmpty() || anim.isEmpty() || png.isEmpty()) {
+			throw new IllegalArgumentException("Pass the kanim to benchmark with -p build=... -p anim=... -p png=...");
+		}
+		target = Targets.create("MatrixDecomposerTarget", Target.class);
+		target.load(build, anim, png);
+	}
+
+	@Benchmark
+	public double[] inline() {
+		return target.inline();
+	}
+
+	@Benchmark
+	public double[] cold() {
+		return target.cold();
+	}
+
+	@Benchmark
+	public double[] warm() {
+		return target.warm();
+	}
+
+}
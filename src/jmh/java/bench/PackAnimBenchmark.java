@@ -0,0 +1,59 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * builds the anim of a synthetic scml with one animation of the given number of frames,
+ * where every frame shows every part, to show that packing scales linearly with the length of the animation
+ * the scml is loaded once in setup and nothing is written so only building the banks is measured, see PackAnimTarget
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackAnimBenchmark {
+
+	public interface Target {
+		void generate(int frames) throws IOException, XMLStreamException;
+		Object buildANIM();
+		void delete() throws IOException;
+	}
+
+	@Param({"250", "1000", "4000"})
+	public int frames;
+
+	private Target target;
+
+	@Setup
+	public void generate() throws IOException, XMLStreamException {
+		target = Targets.create("PackAnimTarget", Target.class);
+		target.generate(frames);
+	}
+
+	@TearDown
+	public void delete() throws IOException {
+		target.delete();
+	}
+
+	@Benchmark
+	public Object buildANIM() {
+		return target.buildANIM();
+	}
+
+}
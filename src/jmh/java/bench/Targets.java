@@ -0,0 +1,19 @@
+package bench;
+
+/*
+ * jmh doesn't allow benchmarks in the default package, and classes in a package can't name the classes
+ * of the default package, which is where all of kparser is
+ * so each benchmark here declares what it calls as an interface, and a class in the default package
+ * next to it implements that interface with the actual code, and is created by name once in setup
+ */
+public class Targets {
+
+	public static <T> T create(String className, Class<T> type) {
+		try {
+			return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException(String.format("Could not create the benchmark target %s.", className), e);
+		}
+	}
+
+}
@@ -8,6 +8,8 @@ public class ANIMBank {
 	public float rate;
 	public int frames;
 	public List<ANIMFrame> framesList;
+	// columnar storage of the frames, banks may carry this instead of framesList
+	public ANIMColumns columns;
 	public Map<String, Integer> elementIdMap;
 
 }
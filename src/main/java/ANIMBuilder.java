@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+
+/*
+ * visitor that rebuilds the ANIM object model
+ * subclasses can override bankBuilt to handle each bank as soon as it is complete instead of keeping it
+ * the hash table entries are added to the given symbol table
+ * in columnar mode the frames of each bank are stored in ANIMBank.columns instead of ANIMBank.framesList
+ */
+public class ANIMBuilder implements ANIMVisitor {
+
+	public ANIM ANIMData;
+	public final SymbolTable symbols;
+
+	private final boolean columnar;
+	private ANIMBank bank;
+	private ANIMFrame frame;
+
+	public ANIMBuilder(SymbolTable symbols) {
+		this(symbols, false);
+	}
+
+	public ANIMBuilder(SymbolTable symbols, boolean columnar) {
+		this.symbols = symbols;
+		this.columnar = columnar;
+	}
+
+	@Override
+	public void onHeader(int version, int elements, int frames, int anims) {
+		ANIMData = new ANIM();
+		ANIMData.version = version;
+		ANIMData.elements = elements;
+		ANIMData.frames = frames;
+		ANIMData.anims = anims;
+		ANIMData.animList = new ArrayList<>();
+	}
+
+	@Override
+	public void onHashEntry(int hash, String name) {
+		symbols.put(hash, name);
+	}
+
+	@Override
+	public void onBankStart(String name, int hash, float rate, int frames) {
+		bank = new ANIMBank();
+		bank.name = name;
+		bank.hash = hash;
+		bank.rate = rate;
+		bank.frames = frames;
+		if (columnar) {
+			bank.columns = new ANIMColumns(frames, frames * 8);
+		} else {
+			bank.framesList = new ArrayList<>();
+		}
+	}
+
+	@Override
+	public void onFrame(float x, float y, float w, float h, int elements) {
+		if (columnar) {
+			bank.columns.addFrame(x, y, w, h);
+			return;
+		}
+		frame = new ANIMFrame();
+		frame.x = x;
+		frame.y = y;
+		frame.w = w;
+		frame.h = h;
+		frame.elements = elements;
+		frame.elementsList = new ArrayList<>();
+		bank.framesList.add(frame);
+	}
+
+	@Override
+	public void onElement(ANIMElement element) {
+		if (columnar) {
+			bank.columns.add(element);
+			return;
+		}
+		ANIMElement copy = new ANIMElement();
+		copy.image = element.image;
+		copy.index = element.index;
+		copy.layer = element.layer;
+		copy.flags = element.flags;
+		copy.a = element.a;
+		copy.b = element.b;
+		copy.g = element.g;
+		copy.r = element.r;
+		copy.m1 = element.m1;
+		copy.m2 = element.m2;
+		copy.m3 = element.m3;
+		copy.m4 = element.m4;
+		copy.m5 = element.m5;
+		copy.m6 = element.m6;
+		copy.order = element.order;
+		frame.elementsList.add(copy);
+	}
+
+	@Override
+	public void onBankEnd() {
+		if (columnar) {
+			bank.columns.trim();
+		}
+		bankBuilt(bank);
+		bank = null;
+		frame = null;
+	}
+
+	@Override
+	public void onEnd(int maxVisSymbolFrames) {
+		ANIMData.maxVisSymbolFrames = maxVisSymbolFrames;
+	}
+
+	protected void bankBuilt(ANIMBank bank) {
+		ANIMData.animList.add(bank);
+	}
+
+}
@@ -0,0 +1,246 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * struct-of-arrays storage for the frames and elements of a single bank
+ * element i has its fields at position i of every element column and the elements
+ * of frame f occupy positions frameStart[f] until frameStart[f + 1]
+ *
+ * this keeps the per element data in a handful of primitive arrays instead of one
+ * ANIMElement object per element, see ANIMElement for what the fields mean
+ */
+public class ANIMColumns {
+
+	public int frames, elements;
+	public int[] frameStart;
+	// frame bounds
+	public float[] x, y, w, h;
+
+	public int[] image, index, layer, flags;
+	public float[] a, b, g, r;
+	public float[] m1, m2, m3, m4, m5, m6;
+	public float[] order;
+	public int[] zIndex; // only used in scml -> kanim conversion
+
+	public ANIMColumns() {
+		this(16, 64);
+	}
+
+	public ANIMColumns(int frameCapacity, int elementCapacity) {
+		frameCapacity = Math.max(frameCapacity, 1);
+		elementCapacity = Math.max(elementCapacity, 1);
+		frameStart = new int[frameCapacity + 1];
+		x = new float[frameCapacity];
+		y = new float[frameCapacity];
+		w = new float[frameCapacity];
+		h = new float[frameCapacity];
+		image = new int[elementCapacity];
+		index = new int[elementCapacity];
+		layer = new int[elementCapacity];
+		flags = new int[elementCapacity];
+		a = new float[elementCapacity];
+		b = new float[elementCapacity];
+		g = new float[elementCapacity];
+		r = new float[elementCapacity];
+		m1 = new float[elementCapacity];
+		m2 = new float[elementCapacity];
+		m3 = new float[elementCapacity];
+		m4 = new float[elementCapacity];
+		m5 = new float[elementCapacity];
+		m6 = new float[elementCapacity];
+		order = new float[elementCapacity];
+		zIndex = new int[elementCapacity];
+	}
+
+	// empties the columns but keeps their capacity so they can be refilled without allocating
+	public void clear() {
+		frames = 0;
+		elements = 0;
+	}
+
+	public int start(int frame) {
+		return frameStart[frame];
+	}
+
+	public int end(int frame) {
+		return frameStart[frame + 1];
+	}
+
+	public int elementCount(int frame) {
+		return frameStart[frame + 1] - frameStart[frame];
+	}
+
+	// starts a new frame, elements added after this belong to it
+	public int addFrame(float x, float y, float w, float h) {
+		if (frames == this.x.length) {
+			int capacity = Math.max(frames * 2, 16);
+			frameStart = Arrays.copyOf(frameStart, capacity + 1);
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.w = Arrays.copyOf(this.w, capacity);
+			this.h = Arrays.copyOf(this.h, capacity);
+		}
+		this.x[frames] = x;
+		this.y[frames] = y;
+		this.w[frames] = w;
+		this.h[frames] = h;
+		frameStart[frames] = elements;
+		frameStart[frames + 1] = elements;
+		return frames++;
+	}
+
+	// appends a copy of the element to the last frame
+	public int add(ANIMElement element) {
+		if (elements == image.length) {
+			grow(Math.max(elements * 2, 64));
+		}
+		int i = elements++;
+		set(i, element);
+		frameStart[frames] = elements;
+		return i;
+	}
+
+	public void set(int i, ANIMElement element) {
+		image[i] = element.image;
+		index[i] = element.index;
+		layer[i] = element.layer;
+		flags[i] = element.flags;
+		a[i] = element.a;
+		b[i] = element.b;
+		g[i] = element.g;
+		r[i] = element.r;
+		m1[i] = element.m1;
+		m2[i] = element.m2;
+		m3[i] = element.m3;
+		m4[i] = element.m4;
+		m5[i] = element.m5;
+		m6[i] = element.m6;
+		order[i] = element.order;
+		zIndex[i] = element.zIndex;
+	}
+
+	// copies element i into the given object so callers can reuse one instance
+	public ANIMElement get(int i, ANIMElement element) {
+		element.image = image[i];
+		element.index = index[i];
+		element.layer = layer[i];
+		element.flags = flags[i];
+		element.a = a[i];
+		element.b = b[i];
+		element.g = g[i];
+		element.r = r[i];
+		element.m1 = m1[i];
+		element.m2 = m2[i];
+		element.m3 = m3[i];
+		element.m4 = m4[i];
+		element.m5 = m5[i];
+		element.m6 = m6[i];
+		element.order = order[i];
+		element.zIndex = zIndex[i];
+		return element;
+	}
+
+	/*
+	 * stable sort of the elements of a frame by descending z index
+	 * frames only have a few dozen elements so insertion sort is fine and avoids boxing
+	 */
+	public void sortFrameByZIndex(int frame) {
+		int start = start(frame);
+		int end = end(frame);
+		ANIMElement key = new ANIMElement();
+		for (int i = start + 1; i < end; i++) {
+			get(i, key);
+			int j = i - 1;
+			while (j >= start && zIndex[j] < key.zIndex) {
+				move(j, j + 1);
+				j--;
+			}
+			set(j + 1, key);
+		}
+	}
+
+	private void move(int from, int to) {
+		image[to] = image[from];
+		index[to] = index[from];
+		layer[to] = layer[from];
+		flags[to] = flags[from];
+		a[to] = a[from];
+		b[to] = b[from];
+		g[to] = g[from];
+		r[to] = r[from];
+		m1[to] = m1[from];
+		m2[to] = m2[from];
+		m3[to] = m3[from];
+		m4[to] = m4[from];
+		m5[to] = m5[from];
+		m6[to] = m6[from];
+		order[to] = order[from];
+		zIndex[to] = zIndex[from];
+	}
+
+	// shrinks the columns to exactly fit their contents, for columns that are kept around after being filled
+	public void trim() {
+		frameStart = Arrays.copyOf(frameStart, frames + 1);
+		x = Arrays.copyOf(x, frames);
+		y = Arrays.copyOf(y, frames);
+		w = Arrays.copyOf(w, frames);
+		h = Arrays.copyOf(h, frames);
+		grow(elements);
+	}
+
+	private void grow(int capacity) {
+		image = Arrays.copyOf(image, capacity);
+		index = Arrays.copyOf(index, capacity);
+		layer = Arrays.copyOf(layer, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		a = Arrays.copyOf(a, capacity);
+		b = Arrays.copyOf(b, capacity);
+		g = Arrays.copyOf(g, capacity);
+		r = Arrays.copyOf(r, capacity);
+		m1 = Arrays.copyOf(m1, capacity);
+		m2 = Arrays.copyOf(m2, capacity);
+		m3 = Arrays.copyOf(m3, capacity);
+		m4 = Arrays.copyOf(m4, capacity);
+		m5 = Arrays.copyOf(m5, capacity);
+		m6 = Arrays.copyOf(m6, capacity);
+		order = Arrays.copyOf(order, capacity);
+		zIndex = Arrays.copyOf(zIndex, capacity);
+	}
+
+	// compatibility view: converts object model frames to columns
+	public static ANIMColumns of(List<ANIMFrame> framesList) {
+		int elementCount = 0;
+		for (ANIMFrame frame : framesList) {
+			elementCount += frame.elementsList.size();
+		}
+		ANIMColumns columns = new ANIMColumns(framesList.size(), elementCount);
+		for (ANIMFrame frame : framesList) {
+			columns.addFrame(frame.x, frame.y, frame.w, frame.h);
+			for (ANIMElement element : frame.elementsList) {
+				columns.add(element);
+			}
+		}
+		return columns;
+	}
+
+	// compatibility view: converts the columns back to object model frames
+	public List<ANIMFrame> toFrames() {
+		List<ANIMFrame> framesList = new ArrayList<>(frames);
+		for (int f = 0; f < frames; f++) {
+			ANIMFrame frame = new ANIMFrame();
+			frame.x = x[f];
+			frame.y = y[f];
+			frame.w = w[f];
+			frame.h = h[f];
+			frame.elements = elementCount(f);
+			frame.elementsList = new ArrayList<>(frame.elements);
+			for (int i = start(f); i < end(f); i++) {
+				frame.elementsList.add(get(i, new ANIMElement()));
+			}
+			framesList.add(frame);
+		}
+		return framesList;
+	}
+
+}
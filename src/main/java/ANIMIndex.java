@@ -0,0 +1,52 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * byte offsets of the banks and the trailing hash table of an anim file
+ * built by Reader.indexANIMData so single banks can be decoded without touching the rest
+ */
+public class ANIMIndex {
+
+	public static class BankEntry {
+		public String name;
+		public int hash;
+		// offset and length in bytes of the whole bank, starting at its name
+		public int offset, length;
+
+		public String toString() {
+			return String.format("[BankEntry \"%s\" %d bytes at %d]", name, length, offset);
+		}
+	}
+
+	public int version, elements, frames, anims;
+	public int maxVisSymbolFrames;
+	public List<BankEntry> banks;
+	public int hashTableOffset, hashTableLength;
+
+	/*
+	 * selects the banks matching any of the selectors, in file order
+	 * a selector matches a bank if it is the bank's name or its KleiHash written as a decimal number
+	 */
+	public List<BankEntry> select(Collection<String> selectors) {
+		List<BankEntry> selected = new ArrayList<>();
+		for (String selector : selectors) {
+			boolean found = false;
+			for (BankEntry bank : banks) {
+				if (bank.name.equals(selector) || Integer.toString(bank.hash).equals(selector)) {
+					found = true;
+				}
+			}
+			if (!found) {
+				throw new RuntimeException(String.format("The animation \"%s\" was not found in the anim file.", selector));
+			}
+		}
+		for (BankEntry bank : banks) {
+			if (selectors.contains(bank.name) || selectors.contains(Integer.toString(bank.hash))) {
+				selected.add(bank);
+			}
+		}
+		return selected;
+	}
+
+}
@@ -0,0 +1,31 @@
+/*
+ * receives the contents of an anim file as it is decoded by Reader.visitANIMData
+ * instead of having the whole ANIM -> ANIMBank -> ANIMFrame -> ANIMElement graph built up front
+ *
+ * callbacks arrive in this order:
+ * 	onHeader
+ * 	onHashEntry for every entry of the hash table
+ * 	for every bank: onBankStart, then for every frame onFrame followed by its onElement calls, then onBankEnd
+ * 	onEnd
+ *
+ * the hash table is stored after the banks in the file but it is reported first so that
+ * visitors can resolve symbol names while the banks stream past
+ */
+public interface ANIMVisitor {
+
+	default void onHeader(int version, int elements, int frames, int anims) {}
+
+	default void onHashEntry(int hash, String name) {}
+
+	default void onBankStart(String name, int hash, float rate, int frames) {}
+
+	default void onFrame(float x, float y, float w, float h, int elements) {}
+
+	// the same element instance is reused for every call so copy it if it needs to outlive the call
+	default void onElement(ANIMElement element) {}
+
+	default void onBankEnd() {}
+
+	default void onEnd(int maxVisSymbolFrames) {}
+
+}
@@ -0,0 +1,287 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.RasterFormatException;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.InflaterInputStream;
+import javax.imageio.ImageIO;
+
+/*
+ * gives access to regions of a build's atlas png without decoding the whole sheet into memory
+ *
+ * 8 bit RGB/RGBA and palette pngs (which is what Klei's atlases are) are decoded one row at a time
+ * and only the rows covered by regions that are still waiting to be cut out are kept around, each
+ * region is handed out as a packed TYPE_INT_ARGB (or TYPE_INT_RGB) image as soon as its last row is decoded
+ * anything else (16 bit, grayscale, interlaced...) falls back to decoding the whole image with ImageIO
+ * either way the sprites of a palette atlas are exported as RGB or RGBA pngs (see PngEncoder), not as palette pngs,
+ * their pixels are the same but the files aren't byte for byte what ImageIO wrote before
+ */
+public class Atlas {
+
+	public interface RegionConsumer {
+		void accept(int region, BufferedImage image) throws IOException, InterruptedException;
+	}
+
+	private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+	private final byte[] png;
+	public final int width, height;
+	private int bitDepth, colorType, interlace;
+	private int[] palette;
+	private boolean transparency;
+	// offset and length of every IDAT chunk's data
+	private final List<int[]> idat = new ArrayList<>();
+
+	public Atlas(byte[] png) throws IOException {
+		this.png = png;
+		ByteBuffer buff = ByteBuffer.wrap(png);
+		byte[] signature = new byte[8];
+		if (png.length < 8 + 8 + 13) {
+			throw new IOException("Atlas file is not a png file.");
+		}
+		buff.get(signature);
+		if (!Arrays.equals(signature, SIGNATURE)) {
+			throw new IOException("Atlas file is not a png file.");
+		}
+		int width = 0, height = 0;
+		byte[] alphas = null;
+		while (buff.remaining() >= 12) {
+			int length = buff.getInt();
+			byte[] type = new byte[4];
+			buff.get(type);
+			String chunk = new String(type, StandardCharsets.US_ASCII);
+			int start = buff.position();
+			if (length < 0 || length > buff.remaining() - 4) {
+				throw new IOException(String.format("Atlas png has a broken %s chunk.", chunk));
+			}
+			switch (chunk) {
+				case "IHDR":
+					width = buff.getInt();
+					height = buff.getInt();
+					bitDepth = buff.get() & 0xFF;
+					colorType = buff.get() & 0xFF;
+					buff.get(); // compression method
+					buff.get(); // filter method
+					interlace = buff.get() & 0xFF;
+					break;
+				case "PLTE":
+					palette = new int[length / 3];
+					for (int i = 0; i < palette.length; i++) {
+						palette[i] = 0xFF000000 | (buff.get() & 0xFF) << 16 | (buff.get() & 0xFF) << 8 | (buff.get() & 0xFF);
+					}
+					break;
+				case "tRNS":
+					transparency = true;
+					alphas = new byte[length];
+					buff.get(alphas);
+					break;
+				case "IDAT":
+					idat.add(new int[] {start, length});
+					break;
+				default:
+					break;
+			}
+			buff.position(start + length + 4); // skip the rest of the chunk and its crc
+			if (chunk.equals("IEND")) break;
+		}
+		if (palette != null && alphas != null) {
+			for (int i = 0; i < Math.min(alphas.length, palette.length); i++) {
+				palette[i] = (palette[i] & 0x00FFFFFF) | (alphas[i] & 0xFF) << 24;
+			}
+		}
+		this.width = width;
+		this.height = height;
+	}
+
+	private boolean streamable() {
+		if (interlace != 0 || idat.isEmpty()) return false;
+		switch (colorType) {
+			case 2: return bitDepth == 8 && !transparency;
+			case 3: return palette != null;
+			case 6: return bitDepth == 8;
+			default: return false;
+		}
+	}
+
+	private boolean hasAlpha() {
+		return colorType == 6 || (colorType == 3 && transparency);
+	}
+
+	/*
+	 * cuts the regions out of the atlas and passes each one to the consumer along with its index in the list
+	 * regions are handed out in order of their bottom edge, not in list order
+	 */
+	public void forEachRegion(List<Rectangle> regions, RegionConsumer consumer) throws IOException, InterruptedException {
+		for (Rectangle region : regions) {
+			if (region.width <= 0 || region.height <= 0 || region.x < 0 || region.y < 0
+					|| region.x + region.width > width || region.y + region.height > height) {
+				throw new RasterFormatException(String.format("Sprite region %s is outside of the %dx%d atlas.", region, width, height));
+			}
+		}
+		if (streamable()) {
+			stream(regions, consumer);
+		} else {
+			Utilities.PrintDebug("Atlas png can't be streamed, decoding all of it.");
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+			for (int i = 0; i < regions.size(); i++) {
+				Rectangle region = regions.get(i);
+				consumer.accept(i, image.getSubimage(region.x, region.y, region.width, region.height));
+			}
+		}
+	}
+
+	private void stream(List<Rectangle> regions, RegionConsumer consumer) throws IOException, InterruptedException {
+		Integer[] byBottom = new Integer[regions.size()];
+		// multiset of the top rows of regions that still have to be handed out
+		TreeMap<Integer, Integer> pendingTops = new TreeMap<>();
+		for (int i = 0; i < byBottom.length; i++) {
+			byBottom[i] = i;
+			pendingTops.merge(regions.get(i).y, 1, Integer::sum);
+		}
+		Arrays.sort(byBottom, Comparator.comparingInt(i -> regions.get(i).y + regions.get(i).height));
+		if (byBottom.length == 0) return;
+		int lastRow = regions.get(byBottom[byBottom.length - 1]).y + regions.get(byBottom[byBottom.length - 1]).height;
+
+		int bitsPerPixel = bitDepth * (colorType == 6 ? 4 : colorType == 2 ? 3 : 1);
+		int rowBytes = (width * bitsPerPixel + 7) / 8;
+		int bpp = Math.max(1, bitsPerPixel / 8);
+		byte[] previous = new byte[rowBytes];
+		byte[] current = new byte[rowBytes];
+		int[][] rows = new int[height][];
+		ArrayDeque<int[]> free = new ArrayDeque<>();
+		int type = hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new IdatInputStream()))) {
+			int next = 0;
+			int released = 0;
+			for (int y = 0; y < lastRow; y++) {
+				int filter = in.readUnsignedByte();
+				in.readFully(current);
+				unfilter(filter, current, previous, bpp);
+				if (!pendingTops.isEmpty() && y >= pendingTops.firstKey()) {
+					int[] row = free.isEmpty() ? new int[width] : free.pop();
+					toARGB(current, row);
+					rows[y] = row;
+				}
+
+				while (next < byBottom.length && regions.get(byBottom[next]).y + regions.get(byBottom[next]).height <= y + 1) {
+					int index = byBottom[next++];
+					Rectangle region = regions.get(index);
+					BufferedImage image = new BufferedImage(region.width, region.height, type);
+					int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+					for (int ry = 0; ry < region.height; ry++) {
+						System.arraycopy(rows[region.y + ry], region.x, data, ry * region.width, region.width);
+					}
+					pendingTops.merge(region.y, -1, (count, one) -> count + one == 0 ? null : count + one);
+					consumer.accept(index, image);
+				}
+
+				// rows above every pending region are not needed anymore
+				int needed = Math.min(pendingTops.isEmpty() ? height : pendingTops.firstKey(), y + 1);
+				for (; released < needed; released++) {
+					if (rows[released] != null) {
+						free.push(rows[released]);
+						rows[released] = null;
+					}
+				}
+
+				byte[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+		}
+	}
+
+	private static void unfilter(int filter, byte[] current, byte[] previous, int bpp) throws IOException {
+		switch (filter) {
+			case 0:
+				return;
+			case 1:
+				for (int i = bpp; i < current.length; i++) {
+					current[i] += current[i - bpp];
+				}
+				return;
+			case 2:
+				for (int i = 0; i < current.length; i++) {
+					current[i] += previous[i];
+				}
+				return;
+			case 3:
+				for (int i = 0; i < current.length; i++) {
+					int a = i >= bpp ? current[i - bpp] & 0xFF : 0;
+					current[i] += (a + (previous[i] & 0xFF)) >>> 1;
+				}
+				return;
+			case 4:
+				for (int i = 0; i < current.length; i++) {
+					int a = i >= bpp ? current[i - bpp] & 0xFF : 0;
+					int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+					current[i] += PngEncoder.paeth(a, previous[i] & 0xFF, c);
+				}
+				return;
+			default:
+				throw new IOException(String.format("Atlas png uses unknown filter type %d.", filter));
+		}
+	}
+
+	private void toARGB(byte[] current, int[] row) {
+		switch (colorType) {
+			case 6:
+				for (int x = 0, i = 0; x < width; x++, i += 4) {
+					row[x] = (current[i + 3] & 0xFF) << 24 | (current[i] & 0xFF) << 16 | (current[i + 1] & 0xFF) << 8 | (current[i + 2] & 0xFF);
+				}
+				break;
+			case 2:
+				for (int x = 0, i = 0; x < width; x++, i += 3) {
+					row[x] = 0xFF000000 | (current[i] & 0xFF) << 16 | (current[i + 1] & 0xFF) << 8 | (current[i + 2] & 0xFF);
+				}
+				break;
+			default:
+				int mask = (1 << bitDepth) - 1;
+				for (int x = 0; x < width; x++) {
+					int bit = x * bitDepth;
+					int index = (current[bit >> 3] >> (8 - bitDepth - (bit & 7))) & mask;
+					// out of range indices are an error in the file, show them as opaque black
+					row[x] = index < palette.length ? palette[index] : 0xFF000000;
+				}
+				break;
+		}
+	}
+
+	// concatenation of the data of all IDAT chunks
+	private class IdatInputStream extends InputStream {
+		private int chunk = 0;
+		private int offset = 0;
+
+		@Override
+		public int read() {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			while (chunk < idat.size() && offset == idat.get(chunk)[1]) {
+				chunk++;
+				offset = 0;
+			}
+			if (chunk == idat.size()) return -1;
+			int n = Math.min(len, idat.get(chunk)[1] - offset);
+			System.arraycopy(png, idat.get(chunk)[0] + offset, b, off, n);
+			offset += n;
+			return n;
+		}
+	}
+
+}
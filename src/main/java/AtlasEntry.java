@@ -0,0 +1,14 @@
+// a sprite packed into the texture of a build, with the fields the .atlas file of the texture packer had
+public class AtlasEntry {
+	public String name;
+	public boolean rotate;
+	int x, y;
+	int w, h;
+	int originX, originY;
+	int offsetX, offsetY;
+	int index;
+
+	public String toString() {
+		return String.format("[AtlasEntry \"%s:%d\"]", name, index);
+	}
+}
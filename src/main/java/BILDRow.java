@@ -2,6 +2,8 @@ public class BILDRow {
 
 	BILD bild;
 	String name;
+	// id of name in the reader's symbol table
+	int symbol;
 	int index;
 	int hash, time, duration;
 	float x1, y1, x2, y2;
@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * builds markup in a reusable char buffer, ints and longs are written digit by digit straight into it
+ * so writing them doesn't make a String the way Integer.toString does
+ *
+ * doubles and floats can be written with a fixed number of decimals the same way, trailing zeros are dropped
+ * but there is always at least one digit after the point so 1 comes out as "1.0" like Double.toString
+ * with -1 decimals, which is the default without --decimals, they are written exactly through
+ * Double.toString / Float.toString and still make a String per number
+ *
+ * nothing written is escaped, only use it for names and values that can't contain & < > or "
+ * not thread safe, use one per thread
+ */
+public class DecimalWriter {
+
+	public static final int MAX_DECIMALS = 9;
+	// doubles that scale to more than this many units are written exactly so the long can't overflow
+	private static final double MAX_SCALED = 1e15;
+	private static final long[] POW10 = new long[MAX_DECIMALS + 1];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private char[] chars = new char[1 << 12];
+	private int length = 0;
+
+	public int length() {
+		return length;
+	}
+
+	public void clear() {
+		length = 0;
+	}
+
+	// writes what's in the buffer and empties it
+	public void writeTo(java.io.Writer out) throws IOException {
+		out.write(chars, 0, length);
+		length = 0;
+	}
+
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+
+	public DecimalWriter append(char c) {
+		ensure(1);
+		chars[length++] = c;
+		return this;
+	}
+
+	public DecimalWriter append(String s) {
+		ensure(s.length());
+		s.getChars(0, s.length(), chars, length);
+		length += s.length();
+		return this;
+	}
+
+	public DecimalWriter append(int value) {
+		return append((long) value);
+	}
+
+	public DecimalWriter append(long value) {
+		if (value == Long.MIN_VALUE) {
+			return append(Long.toString(value));
+		}
+		ensure(20);
+		if (value < 0) {
+			chars[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		for (int i = length + digits - 1; i >= length; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+		return this;
+	}
+
+	// rounds half away from zero to the given number of decimals, -1 writes the exact value
+	public DecimalWriter append(double value, int decimals) {
+		if (decimals < 0 || !(Math.abs(value) * POW10[decimals] < MAX_SCALED)) {
+			return append(Double.toString(value));
+		}
+		return appendScaled(scale(value, decimals), decimals);
+	}
+
+	public DecimalWriter append(float value, int decimals) {
+		if (decimals < 0) {
+			return append(Float.toString(value));
+		}
+		return append((double) value, decimals);
+	}
+
+	// the float that the text append(value, decimals) writes parses to
+	public static float rounded(double value, int decimals) {
+		if (decimals < 0 || !(Math.abs(value) * POW10[decimals] < MAX_SCALED)) {
+			return Float.parseFloat(Double.toString(value));
+		}
+		return (float) ((double) scale(value, decimals) / POW10[decimals]);
+	}
+
+	private static long scale(double value, int decimals) {
+		double scaled = Math.abs(value) * POW10[decimals];
+		long units = (long) (scaled + 0.5);
+		return value < 0 ? -units : units;
+	}
+
+	private DecimalWriter appendScaled(long units, int decimals) {
+		if (units < 0) {
+			append('-');
+			units = -units;
+		}
+		long whole = units / POW10[decimals];
+		long fraction = units % POW10[decimals];
+		append(whole);
+		append('.');
+		if (fraction == 0) {
+			return append('0');
+		}
+		int digits = decimals;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		ensure(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			chars[i] = (char) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		length += digits;
+		return this;
+	}
+
+	private void ensure(int more) {
+		if (length + more > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + more));
+		}
+	}
+
+}
@@ -1,15 +1,18 @@
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
+import javax.xml.stream.XMLStreamException;
 
 public class KAnimConverter {
 	
-	public static void convert(String imgPathStr, String buildPathStr, String animPathStr, String outputDir) throws FileNotFoundException, IOException, ParserConfigurationException, TransformerException {
+	public static void convert(String imgPathStr, String buildPathStr, String animPathStr, String outputDir) throws FileNotFoundException, IOException, XMLStreamException {
 		var outputPath = Path.of(outputDir);
 		// Ensure output dirs exist
 		outputPath.toFile().mkdirs();
@@ -20,22 +23,44 @@ public class KAnimConverter {
 		var build = Path.of(buildPathStr).toFile();
 		var anim = Path.of(animPathStr).toFile();
 
-		Reader reader = new Reader(new FileInputStream(build),
-				new FileInputStream(anim),
-				new FileInputStream(imgPath.toFile()));
+		Reader reader;
+		if (Main.settings.MAP_INPUT) {
+			reader = new Reader(build.toPath(), anim.toPath(), new FileInputStream(imgPath.toFile()));
+		} else {
+			reader = new Reader(new FileInputStream(build),
+					new FileInputStream(anim),
+					new FileInputStream(imgPath.toFile()));
+		}
 		Utilities.PrintInfo("Parsing build data.");
 		reader.parseBILDData();
-		Utilities.PrintInfo("Exporting textures.");
 
+		var filename = imgPath.getFileName().toString();
+		var name = filename.substring(0, filename.lastIndexOf('.'));
+		if (Main.settings.ZIP_OUTPUT) {
+			if (Main.settings.ZIP_LEVEL < 0 || Main.settings.ZIP_LEVEL > 9) {
+				throw new RuntimeException(String.format("The zip level must be between 0 and 9 but was %d.", Main.settings.ZIP_LEVEL));
+			}
+			var zipPath = outputPath.resolve(name + ".zip");
+			// entries go straight into the archive as they are made, nothing is written to the directory first
+			try (var zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipPath)))) {
+				zip.setLevel(Main.settings.ZIP_LEVEL);
+				Utilities.PrintInfo("Exporting textures.");
+				reader.exportTextures(zip);
+				Writer writer = createWriter(reader);
+				Utilities.PrintInfo("Writing...");
+				zip.putNextEntry(new ZipEntry(name + ".scml"));
+				writer.save(zip, Main.settings.THREADS);
+				zip.closeEntry();
+			}
+			Utilities.PrintInfo("Done.");
+			return;
+		}
+
+		Utilities.PrintInfo("Exporting textures.");
 		reader.exportTextures(outputPath);
-		Utilities.PrintInfo("Parsing animation data.");
-		reader.parseANIMData();
-		Writer writer = new Writer();
-		writer.init(reader.BILDTable, reader.BILDData, reader.ANIMData, reader.ANIMHash);
+		Writer writer = createWriter(reader);
 
-		var filename = imgPath.getFileName().toString();
-		String scmlFileName = filename
-				.substring(0, filename.lastIndexOf('.')) + ".scml";
+		String scmlFileName = name + ".scml";
 		var outputFilePath = outputPath.resolve(scmlFileName);
 
 		Utilities.PrintInfo("Writing...");
@@ -43,5 +68,22 @@ public class KAnimConverter {
 
 		Utilities.PrintInfo("Done.");
 	}
+
+	private static Writer createWriter(Reader reader) throws IOException {
+		Utilities.PrintInfo("Parsing animation data.");
+		Writer writer = new Writer();
+		writer.deltaKeys = Main.settings.DELTA_KEYS;
+		writer.deltaTolerance = Main.settings.DELTA_TOLERANCE;
+		if (Main.settings.DECIMALS != null) {
+			writer.setDecimals(Main.settings.DECIMALS);
+		}
+		if (Main.settings.ANIMS.isEmpty()) {
+			writer.init(reader.BILDTable, reader.BILDData, reader);
+		} else {
+			writer.init(reader.BILDTable, reader.BILDData, reader,
+					reader.indexANIMData().select(Main.settings.ANIMS));
+		}
+		return writer;
+	}
 	
 }
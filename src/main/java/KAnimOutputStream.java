@@ -0,0 +1,94 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * writes the little endian ints, floats and strings of a build or anim file into one direct buffer
+ * that is written to the file's channel whenever it fills up, instead of a write per value
+ *
+ * the size of the file is given up front, see sizeOf, so small files are written with a single write
+ * and a buffer no bigger than the file, and writing a different number of bytes is an error on close
+ * not thread safe
+ */
+public class KAnimOutputStream implements Closeable {
+
+	private static final int MAX_BUFFER = 1 << 20;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final long size;
+	private long written = 0;
+
+	public KAnimOutputStream(Path path, long size) throws IOException {
+		this.path = path;
+		this.size = size;
+		// ints and floats are never split between two writes so the buffer holds at least one
+		this.buffer = ByteBuffer.allocateDirect((int) Math.max(Math.min(size, MAX_BUFFER), 4)).order(ByteOrder.LITTLE_ENDIAN);
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	// the bytes writeString writes
+	public static int sizeOf(String val) {
+		return 4 + val.getBytes(StandardCharsets.US_ASCII).length;
+	}
+
+	public void writeInt(int val) throws IOException {
+		if (buffer.remaining() < 4) drain();
+		buffer.putInt(val);
+	}
+
+	public void writeFloat(float val) throws IOException {
+		if (buffer.remaining() < 4) drain();
+		buffer.putFloat(val);
+	}
+
+	// the length and then the characters as ascii
+	public void writeString(String val) throws IOException {
+		byte[] asBytes = val.getBytes(StandardCharsets.US_ASCII);
+		writeInt(asBytes.length);
+		write(asBytes);
+	}
+
+	// the characters as ascii without a length, for the header
+	public void writeHeader(String val) throws IOException {
+		write(val.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!buffer.hasRemaining()) drain();
+			int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		written += buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			channel.close();
+		}
+		if (written != size) {
+			throw new RuntimeException(String.format("Wrote %d bytes to %s but its size was given as %d.", written, path.getFileName(), size));
+		}
+	}
+
+}
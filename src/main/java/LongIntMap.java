@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/*
+ * open addressing map from long keys to ints that aren't negative, with linear probing, kept at most half full
+ * so lookups on primitive keys don't box, get returns EMPTY for keys that aren't in it
+ */
+public class LongIntMap {
+
+	public static final int EMPTY = -1;
+
+	private long[] keys = new long[32];
+	private int[] values = empty(32);
+	private int count = 0;
+
+	private static int[] empty(int capacity) {
+		int[] values = new int[capacity];
+		Arrays.fill(values, EMPTY);
+		return values;
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	// returns the slot holding the key or the empty slot where it would go
+	private int find(long key) {
+		int mask = values.length - 1;
+		int slot = mix(key) & mask;
+		while (values[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	public int get(long key) {
+		return values[find(key)];
+	}
+
+	public void put(long key, int value) {
+		int slot = find(key);
+		if (values[slot] == EMPTY) {
+			keys[slot] = key;
+			count++;
+		}
+		values[slot] = value;
+		if (count * 2 > values.length) {
+			grow();
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldValues.length * 2];
+		values = empty(oldValues.length * 2);
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == EMPTY) continue;
+			int slot = find(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,6 +20,48 @@ class Settings {
 	@Option(name="--to-scml", aliases={"-S"}, usage="Convert from KAnim to SCML.")
 	public boolean MAKE_SCML = false;
 
+	@Option(name="--mmap", usage="Memory-map the build and anim files instead of reading them onto the heap.")
+	public boolean MAP_INPUT = false;
+
+	@Option(name="--anim", aliases={"-a"}, metaVar="NAME", usage="Only convert the animation with this name or KleiHash to SCML. Can be given more than once.")
+	public List<String> ANIMS = new ArrayList<>();
+
+	@Option(name="--threads", aliases={"-j"}, usage="Number of worker threads to use. Defaults to the number of processors.")
+	public int THREADS = Runtime.getRuntime().availableProcessors();
+
+	@Option(name="--hardlink", usage="Hard link sprites with identical pixels to each other instead of writing copies.")
+	public boolean HARD_LINK = false;
+
+	@Option(name="--png", usage="How hard to compress exported sprites: FAST, DEFAULT or SMALL.")
+	public PngEncoder.Mode PNG_MODE = PngEncoder.Mode.DEFAULT;
+
+	@Option(name="--zip", usage="Write the sprites and scml of --to-scml into one zip archive in the output directory instead of separate files.")
+	public boolean ZIP_OUTPUT = false;
+
+	@Option(name="--zip-level", metaVar="LEVEL", usage="Compression level of the --zip archive, from 0 (none) to 9 (smallest). Defaults to 6.")
+	public int ZIP_LEVEL = 6;
+
+	@Option(name="--delta-keys", usage="Only write the timeline keys and attributes that change from key to key in --to-scml.")
+	public boolean DELTA_KEYS = false;
+
+	@Option(name="--delta-tolerance", metaVar="AMOUNT", usage="How much a value can change and still count as unchanged with --delta-keys. Defaults to 0.")
+	public float DELTA_TOLERANCE = 0;
+
+	@Option(name="--decimals", metaVar="ANGLE,SCALE,POSITION", usage="Decimals to write the angle, scale and position of timeline keys with in --to-scml, e.g. 4,4,3. One number sets all three. Defaults to exact.")
+	public String DECIMALS = null;
+
+	@Option(name="--hash-cache", metaVar="FILE", usage="Keep the hashes of symbol and animation names in this file between runs. It is created if it doesn't exist.")
+	public String HASH_CACHE = null;
+
+	@Option(name="--pack-cache", metaVar="FILE", usage="Keep what --to-kanim packed in this file and reuse it when the sprites haven't changed. It is created if it doesn't exist.")
+	public String PACK_CACHE = null;
+
+	@Option(name="--trace", metaVar="SUBSYSTEM=LEVEL,...", usage="Trace levels for reader, writer, packer, export or all: off, info, debug or trace.")
+	public String TRACE = null;
+
+	@Option(name="--trace-json", metaVar="FILE", usage="Write trace events to the file as json lines instead of printing them.")
+	public String TRACE_JSON = null;
+
 	@Option(name="--output-dir", aliases={"-o"}, usage="The directory to output files in.")
 	public String OUTPUT_DIR = "output";
 
@@ -39,12 +82,24 @@ public class Main {
 		var parser = new CmdLineParser(settings);
 		// parse the arguments.
 		parser.parseArgument(args);
+		if (settings.BE_VERBOSE) {
+			Trace.setAll(Trace.Level.TRACE);
+		}
+		if (settings.TRACE != null) {
+			Trace.configure(settings.TRACE);
+		}
+		if (settings.TRACE_JSON != null) {
+			Trace.toJson(Path.of(settings.TRACE_JSON));
+		}
 
 		if( settings.arguments.isEmpty() ) {
 			System.err.println("java -jar kparser [options...] arguments...");
 			// print the list of available options
 			parser.printUsage(System.out);
 		} else {
+			if (settings.HASH_CACHE != null) {
+				SymbolHashes.load(Path.of(settings.HASH_CACHE));
+			}
 			var files = settings.arguments;
 			if (settings.MAKE_KANIM) {
 				ScmlConverter.convert(Utilities.getAbsolutePath(files.get(0)));
@@ -77,6 +132,9 @@ public class Main {
 			} else {
 				System.err.println("You must specify the conversion direction (--to-kanim or --to-scml).");
 			}
+			if (settings.HASH_CACHE != null) {
+				SymbolHashes.save(Path.of(settings.HASH_CACHE));
+			}
 		}
 	}
 }
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/*
+ * splits the 2x2 part (m1..m4) of element transforms into scale_x, scale_y and an angle in degrees
+ *
+ * anims repeat the same few matrices over and over (idle and loop anims hold a pose for many frames)
+ * so results are cached by the exact bits of the matrix, a cached result is exactly what computing it gives
+ * the cache is cleared when it gets half full so memory stays fixed
+ * not thread safe, use one per thread
+ */
+public class MatrixDecomposer {
+
+	private static final int DEFAULT_CAPACITY = 1 << 14;
+
+	private final int mask;
+	private final long[] keys12, keys34;
+	private final boolean[] filled;
+	private final double[] cachedScaleX, cachedScaleY, cachedAngle;
+	private int size = 0;
+
+	public long hits = 0, misses = 0;
+
+	public MatrixDecomposer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	// capacity is rounded up to a power of two
+	public MatrixDecomposer(int capacity) {
+		int slots = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		mask = slots - 1;
+		keys12 = new long[slots];
+		keys34 = new long[slots];
+		filled = new boolean[slots];
+		cachedScaleX = new double[slots];
+		cachedScaleY = new double[slots];
+		cachedAngle = new double[slots];
+	}
+
+	/*
+	 * decomposes the matrices from index from up to to, writing the results at the same indexes
+	 * i.e. scaleX[i], scaleY[i] and angle[i] come from m1[i], m2[i], m3[i] and m4[i]
+	 */
+	public void decompose(float[] m1, float[] m2, float[] m3, float[] m4, int from, int to,
+						  double[] scaleX, double[] scaleY, double[] angle) {
+		for (int i = from; i < to; i++) {
+			long key12 = ((long) Float.floatToRawIntBits(m1[i]) << 32) | (Float.floatToRawIntBits(m2[i]) & 0xffffffffL);
+			long key34 = ((long) Float.floatToRawIntBits(m3[i]) << 32) | (Float.floatToRawIntBits(m4[i]) & 0xffffffffL);
+			int slot = slotOf(key12, key34);
+			if (!filled[slot]) {
+				misses++;
+				if (size * 2 >= filled.length) {
+					Arrays.fill(filled, false);
+					size = 0;
+					slot = slotOf(key12, key34);
+				}
+				compute(m1[i], m2[i], m3[i], m4[i], cachedScaleX, cachedScaleY, cachedAngle, slot);
+				keys12[slot] = key12;
+				keys34[slot] = key34;
+				filled[slot] = true;
+				size++;
+			} else {
+				hits++;
+			}
+			scaleX[i] = cachedScaleX[slot];
+			scaleY[i] = cachedScaleY[slot];
+			angle[i] = cachedAngle[slot];
+		}
+	}
+
+	// linear probing, returns the slot holding the matrix or the empty slot where it would go
+	private int slotOf(long key12, long key34) {
+		long h = key12 * 0x9E3779B97F4A7C15L ^ key34 * 0xC2B2AE3D27D4EB4FL;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		while (filled[slot] && (keys12[slot] != key12 || keys34[slot] != key34)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	// the uncached decomposition, writes its results at index i
+	public static void compute(float m1, float m2, float m3, float m4,
+							   double[] scaleX, double[] scaleY, double[] angle, int i) {
+		// is part of the formula for decomposing transformation matrix into components
+		// see https://math.stackexchange.com/questions/237369/given-this-transformation-matrix-how-do-i-decompose-it-into-translation-rotati
+		double scale_x = Math.sqrt(m1 * m1 + m2 * m2);
+		double scale_y = Math.sqrt(m3 * m3 + m4 * m4);
+
+		double det = m1 * m4 - m3 * m2;
+		if (det < 0) {
+			scale_y = -scale_y;
+		}
+
+		// still part of the formula for obtaining rotation component from combined rotation + scaling
+		// undue scaling by dividing by scaling and then taking average value of sin/cos to make it more
+		// accurate (b/c sin and cos appear twice each in 2d rotation matrix)
+		double sin_approx = 0.5 * (m3 / scale_y - m2 / scale_x);
+		double cos_approx = 0.5 * (m1 / scale_x + m4 / scale_y);
+
+		double theta = Math.atan2(sin_approx, cos_approx);
+		// it seems as if the notion of simply haveing x,y, angle and scale are not really sufficient to describe the
+		// transformation applied to each point since the 2x3 matrix m1...m6 doesn't nicely decompose into a valid rotation matrix
+		// basically the two components that are sin are not equal and the two components that are cos are not equal. This would imply
+		// that there is some additional transformation being applied to each point in addition to just the scale and rotation information
+		// that makes it such that when we just look at that rotation information it does not produce the correct result
+
+		if (theta < 0) {
+			theta += 2 * Math.PI;
+		}
+		theta *= 180 / Math.PI;
+
+		scaleX[i] = scale_x;
+		scaleY[i] = scale_y;
+		angle[i] = theta;
+	}
+
+}
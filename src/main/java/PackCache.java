@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * what the last --to-kanim run packed, kept in the file given with --pack-cache
+ *
+ * inputs is a hash of the pack settings and the names and bytes of every sprite, layout a hash of the settings
+ * and what the packer places (the names, sizes and aliases of the sprites), image a hash of the png that was written
+ * the regions only depend on the layout, so they are reused as they are when either hash matches
+ *
+ * the file is text, a "key<tab>value..." line per value and an entry line per region with the name last
+ * a file that can't be read is treated as no cache, it is only ever a shortcut
+ */
+public class PackCache {
+
+	private static final String VERSION = "1";
+
+	public String inputs, layout, image;
+	public int width, height;
+	public List<AtlasEntry> entries = new ArrayList<>();
+
+	public static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static String hex(byte[] hash) {
+		return String.format("%0" + hash.length * 2 + "x", new BigInteger(1, hash));
+	}
+
+	// the hash of the file, or null if it doesn't exist
+	public static String hashOf(Path path) throws IOException {
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		return hex(sha256().digest(Files.readAllBytes(path)));
+	}
+
+	// the cache in the file, or null if there is none or it is from another version or damaged
+	public static PackCache load(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return null;
+		}
+		PackCache cache = new PackCache();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			boolean current = false;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 12);
+				switch (fields[0]) {
+					case "version":
+						current = fields[1].equals(VERSION);
+						break;
+					case "inputs":
+						cache.inputs = fields[1];
+						break;
+					case "layout":
+						cache.layout = fields[1];
+						break;
+					case "image":
+						cache.image = fields[1];
+						cache.width = Integer.parseInt(fields[2]);
+						cache.height = Integer.parseInt(fields[3]);
+						break;
+					case "entry":
+						AtlasEntry entry = new AtlasEntry();
+						entry.rotate = Boolean.parseBoolean(fields[1]);
+						entry.x = Integer.parseInt(fields[2]);
+						entry.y = Integer.parseInt(fields[3]);
+						entry.w = Integer.parseInt(fields[4]);
+						entry.h = Integer.parseInt(fields[5]);
+						entry.originX = Integer.parseInt(fields[6]);
+						entry.originY = Integer.parseInt(fields[7]);
+						entry.offsetX = Integer.parseInt(fields[8]);
+						entry.offsetY = Integer.parseInt(fields[9]);
+						entry.index = Integer.parseInt(fields[10]);
+						entry.name = fields[11];
+						cache.entries.add(entry);
+						break;
+					default:
+						current = false;
+				}
+				if (!current) break;
+			}
+			if (!current || cache.inputs == null || cache.layout == null || cache.image == null) {
+				Utilities.PrintDebug(String.format("The pack cache %s is from another version, the sprites are packed again.", path));
+				return null;
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			Utilities.PrintDebug(String.format("The pack cache %s is damaged, the sprites are packed again.", path));
+			return null;
+		}
+		return cache;
+	}
+
+	// writes the cache to a file next to it and then moves that over it, so a run that fails halfway leaves the old cache
+	public void save(Path path) throws IOException {
+		for (AtlasEntry entry : entries) {
+			// a name with a line break would split its line, the sprites are packed again next time instead
+			if (entry.name.indexOf('\n') >= 0 || entry.name.indexOf('\r') >= 0) return;
+		}
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			writer.write("version\t" + VERSION);
+			writer.newLine();
+			writer.write("inputs\t" + inputs);
+			writer.newLine();
+			writer.write("layout\t" + layout);
+			writer.newLine();
+			writer.write(String.format("image\t%s\t%d\t%d", image, width, height));
+			writer.newLine();
+			for (AtlasEntry entry : entries) {
+				writer.write(String.format("entry\t%b\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%s", entry.rotate, entry.x, entry.y, entry.w, entry.h,
+						entry.originX, entry.originY, entry.offsetX, entry.offsetY, entry.index, entry.name));
+				writer.newLine();
+			}
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Utilities.PrintDebug(String.format("Saved the layout of %d regions to the pack cache %s.", entries.size(), path));
+	}
+
+}
@@ -0,0 +1,255 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * writes 8 bit RGBA (or RGB for images without alpha) pngs
+ *
+ * unlike ImageIO's generic writer the deflate level and the scanline filter can be chosen, and all
+ * the scratch buffers and the Deflater are kept per thread so encoding many small sprites allocates
+ * almost nothing besides the output
+ */
+public class PngEncoder {
+
+	public enum Filter {
+		NONE, SUB, UP, AVERAGE, PAETH,
+		// picks the filter with the smallest sum of absolute differences for every row
+		ADAPTIVE,
+		// encodes both unfiltered and ADAPTIVE and keeps whichever is smaller
+		// sprites with flat colors and lots of transparency usually compress better unfiltered
+		BEST
+	}
+
+	public enum Mode {
+		// for intermediate output that is read back right away
+		FAST(Deflater.BEST_SPEED, Filter.NONE),
+		// same settings ImageIO's png writer ends up using for sprites
+		DEFAULT(4, Filter.NONE),
+		// for files that get shipped
+		SMALL(Deflater.BEST_COMPRESSION, Filter.BEST);
+
+		final int level;
+		final Filter filter;
+
+		Mode(int level, Filter filter) {
+			this.level = level;
+			this.filter = filter;
+		}
+	}
+
+	private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+	// ImageIO's writer splits the image data into chunks of this size, so DEFAULT files match its output byte for byte
+	private static final int IDAT_SIZE = 32768;
+
+	private static class Buffers {
+		int[] pixels = new int[0];
+		byte[] previous = new byte[0];
+		byte[] current = new byte[0];
+		// one output row per filter type, each prefixed with the filter byte
+		byte[][] filtered = new byte[5][0];
+		byte[] deflated = new byte[64 * 1024];
+		ByteArrayOutputStream idat = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater();
+		CRC32 crc = new CRC32();
+
+		void ensure(int rowBytes) {
+			if (current.length < rowBytes) {
+				previous = new byte[rowBytes];
+				current = new byte[rowBytes];
+				for (int i = 0; i < filtered.length; i++) {
+					filtered[i] = new byte[rowBytes + 1];
+				}
+			}
+		}
+	}
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	private final int level;
+	private final Filter filter;
+
+	public PngEncoder(Mode mode) {
+		this(mode.level, mode.filter);
+	}
+
+	public PngEncoder(int level, Filter filter) {
+		this.level = level;
+		this.filter = filter;
+	}
+
+	public byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encode(image, out);
+		return out.toByteArray();
+	}
+
+	public void encode(BufferedImage image, OutputStream out) throws IOException {
+		if (filter == Filter.BEST) {
+			byte[] unfiltered = new PngEncoder(level, Filter.NONE).encode(image);
+			byte[] adaptive = new PngEncoder(level, Filter.ADAPTIVE).encode(image);
+			out.write(unfiltered.length <= adaptive.length ? unfiltered : adaptive);
+			return;
+		}
+		Buffers buffers = BUFFERS.get();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean alpha = image.getColorModel().hasAlpha();
+		int channels = alpha ? 4 : 3;
+		int rowBytes = width * channels;
+		buffers.ensure(rowBytes);
+		if (buffers.pixels.length < rowBytes) {
+			buffers.pixels = new int[rowBytes];
+		}
+
+		out.write(SIGNATURE);
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8; // bit depth
+		header[9] = (byte) (alpha ? 6 : 2); // color type RGBA or RGB
+		// compression, filter and interlace methods are all 0
+		writeChunk(out, "IHDR", header, 0, 13, buffers.crc);
+
+		Deflater deflater = buffers.deflater;
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setStrategy(filter == Filter.NONE ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED);
+		ByteArrayOutputStream idat = buffers.idat;
+		idat.reset();
+
+		Arrays.fill(buffers.previous, 0, rowBytes, (byte) 0);
+		for (int y = 0; y < height; y++) {
+			readRow(image, y, buffers.pixels, buffers.current, channels);
+			byte[] row = filterRow(buffers, rowBytes, channels);
+			deflater.setInput(row, 0, rowBytes + 1);
+			while (!deflater.needsInput()) {
+				int n = deflater.deflate(buffers.deflated);
+				idat.write(buffers.deflated, 0, n);
+			}
+			byte[] swap = buffers.previous;
+			buffers.previous = buffers.current;
+			buffers.current = swap;
+		}
+		deflater.finish();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buffers.deflated);
+			idat.write(buffers.deflated, 0, n);
+		}
+
+		byte[] data = idat.toByteArray();
+		for (int offset = 0; offset < data.length; offset += IDAT_SIZE) {
+			writeChunk(out, "IDAT", data, offset, Math.min(IDAT_SIZE, data.length - offset), buffers.crc);
+		}
+		writeChunk(out, "IEND", new byte[0], 0, 0, buffers.crc);
+	}
+
+	private static void readRow(BufferedImage image, int y, int[] pixels, byte[] row, int channels) {
+		int width = image.getWidth();
+		switch (image.getType()) {
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_3BYTE_BGR:
+				// the bands of these types are already r, g, b (, a) so skip the color model conversion getRGB does
+				image.getRaster().getPixels(0, y, width, 1, pixels);
+				for (int i = 0; i < width * channels; i++) {
+					row[i] = (byte) pixels[i];
+				}
+				return;
+			default:
+				image.getRGB(0, y, width, 1, pixels, 0, width);
+				int j = 0;
+				for (int x = 0; x < width; x++) {
+					int argb = pixels[x];
+					row[j++] = (byte) (argb >> 16);
+					row[j++] = (byte) (argb >> 8);
+					row[j++] = (byte) argb;
+					if (channels == 4) {
+						row[j++] = (byte) (argb >>> 24);
+					}
+				}
+		}
+	}
+
+	private byte[] filterRow(Buffers buffers, int rowBytes, int bpp) {
+		if (filter != Filter.ADAPTIVE) {
+			return applyFilter(buffers, filter.ordinal(), rowBytes, bpp);
+		}
+		byte[] best = null;
+		long bestSum = Long.MAX_VALUE;
+		for (int type = 0; type < 5; type++) {
+			byte[] row = applyFilter(buffers, type, rowBytes, bpp);
+			long sum = 0;
+			for (int i = 1; i <= rowBytes && sum < bestSum; i++) {
+				sum += Math.abs(row[i]);
+			}
+			if (sum < bestSum) {
+				bestSum = sum;
+				best = row;
+			}
+		}
+		return best;
+	}
+
+	private static byte[] applyFilter(Buffers buffers, int type, int rowBytes, int bpp) {
+		byte[] cur = buffers.current;
+		byte[] prev = buffers.previous;
+		byte[] out = buffers.filtered[type];
+		out[0] = (byte) type;
+		for (int i = 0; i < rowBytes; i++) {
+			int x = cur[i] & 0xFF;
+			int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+			int b = prev[i] & 0xFF;
+			int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+			int predicted;
+			switch (type) {
+				case 1: predicted = a; break;
+				case 2: predicted = b; break;
+				case 3: predicted = (a + b) >>> 1; break;
+				case 4: predicted = paeth(a, b, c); break;
+				default: predicted = 0; break;
+			}
+			out[i + 1] = (byte) (x - predicted);
+		}
+		return out;
+	}
+
+	static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) return a;
+		if (pb <= pc) return b;
+		return c;
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length, CRC32 crc) throws IOException {
+		byte[] header = new byte[8];
+		putInt(header, 0, length);
+		for (int i = 0; i < 4; i++) {
+			header[4 + i] = (byte) type.charAt(i);
+		}
+		crc.reset();
+		crc.update(header, 4, 4);
+		crc.update(data, offset, length);
+		byte[] footer = new byte[4];
+		putInt(footer, 0, (int) crc.getValue());
+		out.write(header);
+		out.write(data, offset, length);
+		out.write(footer);
+	}
+
+}
@@ -1,107 +1,124 @@
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import javax.imageio.ImageIO;
+import java.util.zip.ZipOutputStream;
 
 public class Reader {
 
 	private ByteBuffer BILD, ANIM;
-	private BufferedImage IMG;
+	private Atlas IMG;
+	// scratch space for decoding strings out of buffers that have no backing array (i.e. mapped files)
+	private byte[] strBuffer = new byte[64];
 
 	private boolean BILDparsed;
 	private boolean ANIMparsed;
 
+	// the hash tables of both files, the writer resolves names through it
+	public SymbolTable symbols;
 	public BILD BILDData;
-	public Map<Integer, String> BILDHash;
 	public List<BILDRow> BILDTable;
 
 	public ANIM ANIMData;
-	public Map<Integer, String> ANIMHash;
-	private Map<String, Integer> ANIMIdMap;
+	// ids of the distinct (sprite, layer) pairs of the elements, keyed by the sprite id and layer id packed into a long
+	private LongIntMap ANIMIdMap;
+	private long[] ANIMIdKeys;
+	private ANIMIndex ANIMIndex;
 
 	private void printBILDData() {
-		StringBuilder data = new StringBuilder();
-		data.append(BILDData.name + " v" + BILDData.version + '\n');
-		data.append("there are " + BILDData.symbols + " symbols and " + BILDData.frames + " frames");
-		Utilities.PrintDebug(data.toString());
+		Trace.READER.debug("build").with("name", BILDData.name).with("version", BILDData.version)
+				.with("symbols", BILDData.symbols).with("frames", BILDData.frames).emit();
 	}
 
-	private void printBILDHash() {
-		StringBuilder hash = new StringBuilder();
-		for (Map.Entry<Integer, String> entry : BILDHash.entrySet()) {
-			hash.append("value " + entry.getKey() + " maps onto symbol " + entry.getValue() + '\n');
+	private void printSymbols(int from) {
+		if (!Trace.READER.trace()) return;
+		for (int id = from; id < symbols.size(); id++) {
+			Trace.READER.trace("symbol").with("id", id).with("hash", symbols.hash(id)).with("name", symbols.name(id)).emit();
 		}
-		Utilities.PrintDebug(hash.toString());
 	}
 
 	private void printBILDTable() {
-		StringBuilder table = new StringBuilder();
+		if (!Trace.READER.trace()) return;
 		for (BILDRow row : BILDTable) {
-			table.append("for symbol " + row.name + ", frame index " + row.index + " has duration " +
-					row.duration + " and occupies rectangle (" + row.x1 + ", " +
-					row.y1 + ", " + row.x2 + ", " + row.y2 + ") and has size " + row.w + " x " + row.h + '\n');
-
-			table.append("pivot information: offset=(" + row.pivotX + ", " + row.pivotY + " comparedToSize=(" + row.pivotWidth + ", " + row.pivotHeight +")\n");
+			Trace.READER.trace("build frame").with("symbol", row.name).with("index", row.index)
+					.with("duration", row.duration).with("x1", row.x1).with("y1", row.y1)
+					.with("x2", row.x2).with("y2", row.y2).with("w", row.w).with("h", row.h)
+					.with("pivotX", row.pivotX).with("pivotY", row.pivotY)
+					.with("pivotWidth", row.pivotWidth).with("pivotHeight", row.pivotHeight).emit();
 		}
-		Utilities.PrintDebug(table.toString());
 	}
 
 	private void printANIMData() {
-		StringBuilder data = new StringBuilder();
-		data.append("v" + ANIMData.version + " has " + ANIMData.anims + " different animations with " +
-				ANIMData.frames + " frames and " + ANIMData.elements + " elements with " + ANIMData.maxVisSymbolFrames +
-				" maximum visible symbol frames");
-		Utilities.PrintDebug(data.toString());
-	}
-
-	private void printANIMHash() {
-		StringBuilder hash = new StringBuilder();
-		for (Map.Entry<Integer, String> entry : ANIMHash.entrySet()) {
-			hash.append("value " + entry.getKey() + " maps onto symbol " + entry.getValue() + '\n');
-		}
-		Utilities.PrintDebug(hash.toString());
+		Trace.READER.debug("anim").with("version", ANIMData.version).with("anims", ANIMData.anims)
+				.with("frames", ANIMData.frames).with("elements", ANIMData.elements)
+				.with("maxVisSymbolFrames", ANIMData.maxVisSymbolFrames).emit();
 	}
 
 	private void printANIMIdMap() {
-		StringBuilder ids = new StringBuilder();
-		for (Map.Entry<String, Integer> entry : ANIMIdMap.entrySet()) {
-			ids.append("element " + entry.getKey() + " maps onto index " + entry.getValue() + '\n');
+		if (!Trace.READER.trace()) return;
+		for (int id = 0; id < ANIMIdMap.size(); id++) {
+			int sprite = (int) (ANIMIdKeys[id] >>> 32);
+			int layer = (int) ANIMIdKeys[id];
+			String element = symbols.name(symbols.spriteSymbol(sprite)) + '_' + symbols.spriteIndex(sprite) + '_' + symbols.name(layer);
+			Trace.READER.trace("anim id").with("element", element).with("index", id).emit();
 		}
-		Utilities.PrintDebug(ids.toString());
 	}
 
 	public Reader(FileInputStream BILD, FileInputStream ANIM, FileInputStream IMG) throws IOException {
-		this.BILD = ByteBuffer.wrap(BILD.readAllBytes());
-		this.ANIM = ByteBuffer.wrap(ANIM.readAllBytes());
-		this.IMG = ImageIO.read(IMG);
+		this(ByteBuffer.wrap(BILD.readAllBytes()), ByteBuffer.wrap(ANIM.readAllBytes()), new Atlas(IMG.readAllBytes()));
+	}
+
+	/*
+	 * maps the build and anim files into memory instead of copying them onto the heap
+	 * the mapping stays valid after the channel is closed and is released when the buffer is collected
+	 */
+	public Reader(Path BILD, Path ANIM, FileInputStream IMG) throws IOException {
+		this(map(BILD), map(ANIM), new Atlas(IMG.readAllBytes()));
+	}
+
+	private Reader(ByteBuffer BILD, ByteBuffer ANIM, Atlas IMG) {
+		this.BILD = BILD;
+		this.ANIM = ANIM;
+		this.IMG = IMG;
 		this.BILDparsed = false;
 		this.ANIMparsed = false;
+		this.symbols = new SymbolTable();
 		this.BILDData = null;
-		this.BILDHash = null;
 		this.BILDTable = null;
 		this.ANIMData = null;
-		this.ANIMHash = null;
 		this.ANIMIdMap = null;
+		this.ANIMIdKeys = null;
+		this.ANIMIndex = null;
 	}
 
-	public void exportTextures(Path basePath) throws IOException {
-		for (BILDRow row : BILDTable) {
-			Utilities.PrintDebug(row.x1 + " " + (row.h - row.y1) + " " + row.w + " " + row.h + "    " + IMG.getWidth() + " " + IMG.getHeight());
-			BufferedImage texture = IMG.getSubimage((int) row.x1, (int) (IMG.getHeight() - row.y1), (int) row.w, (int) row.h);
-			File outFile = basePath.resolve(row.name + '_' + row.index + ".png").toFile();
-			ImageIO.write(texture, "png", outFile);
+	private static ByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 		}
 	}
 
+	public void exportTextures(Path basePath) throws IOException {
+		exportTextures(basePath, Main.settings.THREADS);
+	}
+
+	public void exportTextures(Path basePath, int threads) throws IOException {
+		PngEncoder encoder = new PngEncoder(Main.settings.PNG_MODE);
+		new TextureExporter(IMG, encoder, threads, Main.settings.HARD_LINK).export(BILDTable, basePath);
+	}
+
+	// adds the textures to the zip instead of writing them to a directory
+	public void exportTextures(ZipOutputStream zip) throws IOException {
+		PngEncoder encoder = new PngEncoder(Main.settings.PNG_MODE);
+		new TextureExporter(IMG, encoder, Main.settings.THREADS, false).export(BILDTable, zip);
+	}
+
 	private String readString(int length, ByteBuffer buff) {
 		StringBuilder str = new StringBuilder();
 		for (int i = 0; i < length; i++) {
@@ -120,9 +137,17 @@ public class Reader {
 	private String readString(ByteBuffer buff) {
 		int length = buff.getInt();
 		if (length < 0) return null;
-		byte[] strBuffer = new byte[length];
-		buff.get(strBuffer);
-		return new String(strBuffer, StandardCharsets.UTF_8);
+		if (buff.hasArray()) {
+			// decode straight out of the backing array
+			int start = buff.arrayOffset() + buff.position();
+			buff.position(buff.position() + length);
+			return new String(buff.array(), start, length, StandardCharsets.UTF_8);
+		}
+		if (strBuffer.length < length) {
+			strBuffer = new byte[Math.max(length, strBuffer.length * 2)];
+		}
+		buff.get(strBuffer, 0, length);
+		return new String(strBuffer, 0, length, StandardCharsets.UTF_8);
 	}
 
 	public void parseBILDData() throws IOException {
@@ -191,22 +216,23 @@ public class Reader {
 			BILDData.symbolsList.add(symbol);
 		}
 
-		Map<Integer, String> BILDHash = new HashMap<>();
+		int firstSymbol = this.symbols.size();
 		int num = BILD.getInt();
 		for (int i = 0; i < num; i++) {
 			int hash = BILD.getInt();
 			String text = readString(BILD);
-			BILDHash.put(hash, text);
+			this.symbols.put(hash, text);
 		}
 
-		int imgWidth = IMG.getWidth();
-		int imgHeight = IMG.getHeight();
+		int imgWidth = IMG.width;
+		int imgHeight = IMG.height;
 		List<BILDRow> BILDTable = new ArrayList<>();
 		for (BILDSymbol symbol : BILDData.symbolsList) {
 			for (BILDFrame frame : symbol.framesList) {
 				BILDRow row = new BILDRow();
 				row.bild = BILDData;
-				row.name = BILDHash.get(symbol.hash);
+				row.symbol = this.symbols.idOf(symbol.hash);
+				row.name = this.symbols.name(row.symbol);
 				row.index = frame.sourceFrameNum;
 				row.hash = symbol.hash;
 				row.time = frame.time;
@@ -226,134 +252,171 @@ public class Reader {
 		}
 
 		this.BILDData = BILDData;
-		this.BILDHash = BILDHash;
 		this.BILDTable = BILDTable;
 		this.BILDparsed = true;
 		printBILDData();
-		printBILDHash();
+		printSymbols(firstSymbol);
 		printBILDTable();
 	}
 
-	public void parseANIMData() throws IOException {
-		if (ANIMparsed) return;
+	private static final int ANIM_FRAME_HEADER_SIZE = 5 * 4;
+	private static final int ANIM_ELEMENT_SIZE = 15 * 4;
 
+	private void skipFrames(ByteBuffer buff, int frames) {
+		for (int j = 0; j < frames; j++) {
+			buff.position(buff.position() + ANIM_FRAME_HEADER_SIZE - 4);
+			int elements = buff.getInt();
+			buff.position(buff.position() + elements * ANIM_ELEMENT_SIZE);
+		}
+	}
+
+	/*
+	 * records where each bank and the trailing hash table are in the anim file
+	 * only bank names and frame/element counts are read, everything else is skipped
+	 */
+	public ANIMIndex indexANIMData() throws IOException {
+		if (ANIMIndex != null) return ANIMIndex;
+
+		ByteBuffer ANIM = this.ANIM.duplicate();
+		ANIM.position(0);
 		checkHeader("ANIM", ANIM);
 		ANIM.order(ByteOrder.LITTLE_ENDIAN);
 
-		int version = ANIM.getInt();
-		int elements = ANIM.getInt();
-		int frames = ANIM.getInt();
-		int anims = ANIM.getInt();
-		List<ANIMBank> animList = new ArrayList<>();
-		ANIM ANIMData = new ANIM();
-		ANIMData.version = version;
-		ANIMData.elements = elements;
-		ANIMData.frames = frames;
-		ANIMData.anims = anims;
-		ANIMData.animList = animList;
-
-		for (int i = 0; i < ANIMData.anims; i++) {
+		ANIMIndex index = new ANIMIndex();
+		index.version = ANIM.getInt();
+		index.elements = ANIM.getInt();
+		index.frames = ANIM.getInt();
+		index.anims = ANIM.getInt();
+		index.banks = new ArrayList<>(index.anims);
+		for (int i = 0; i < index.anims; i++) {
+			ANIMIndex.BankEntry bank = new ANIMIndex.BankEntry();
+			bank.offset = ANIM.position();
+			bank.name = readString(ANIM);
+			bank.hash = ANIM.getInt();
+			ANIM.getFloat(); // rate
+			skipFrames(ANIM, ANIM.getInt());
+			bank.length = ANIM.position() - bank.offset;
+			index.banks.add(bank);
+		}
+		index.maxVisSymbolFrames = ANIM.getInt();
+
+		index.hashTableOffset = ANIM.position();
+		int num = ANIM.getInt();
+		for (int i = 0; i < num; i++) {
+			ANIM.getInt();
+			int length = ANIM.getInt();
+			ANIM.position(ANIM.position() + Math.max(length, 0));
+		}
+		index.hashTableLength = ANIM.position() - index.hashTableOffset;
+
+		this.ANIMIndex = index;
+		return index;
+	}
+
+	/*
+	 * decodes the anim file and reports its contents to the visitor without building the object model
+	 * see ANIMVisitor for the order of the callbacks
+	 */
+	public void visitANIMData(ANIMVisitor visitor) throws IOException {
+		visitANIMData(visitor, indexANIMData().banks);
+	}
+
+	/*
+	 * same as visitANIMData but only decodes the given banks, which must come from indexANIMData
+	 * the header and hash table are always reported in full
+	 */
+	public void visitANIMData(ANIMVisitor visitor, List<ANIMIndex.BankEntry> banks) throws IOException {
+		ANIMIndex index = indexANIMData();
+		// work on a duplicate so the file can be visited more than once
+		ByteBuffer ANIM = this.ANIM.duplicate();
+		ANIM.order(ByteOrder.LITTLE_ENDIAN);
+		visitor.onHeader(index.version, index.elements, index.frames, index.anims);
+
+		// the hash table trails the banks but it is reported first so banks can be resolved as they are visited
+		ANIM.position(index.hashTableOffset);
+		int num = ANIM.getInt();
+		for (int i = 0; i < num; i++) {
+			int hash = ANIM.getInt();
+			String text = readString(ANIM);
+			visitor.onHashEntry(hash, text);
+		}
+
+		ANIMElement element = new ANIMElement();
+		for (ANIMIndex.BankEntry bank : banks) {
+			ANIM.position(bank.offset);
 			String name = readString(ANIM);
 			int hash = ANIM.getInt();
-			Utilities.PrintDebug("anim with name="+name+" but hash="+hash);
+			Trace.READER.debug("bank").with("name", name).with("hash", hash).emit();
 			float rate = ANIM.getFloat();
 			int frames1 = ANIM.getInt();
-			List<ANIMFrame> framesList = new ArrayList<>();
-			ANIMBank bank = new ANIMBank();
-			bank.name = name;
-			bank.hash = hash;
-			bank.rate = rate;
-			bank.frames = frames1;
-			bank.framesList = framesList;
-
-			for (int j = 0; j < bank.frames; j++) {
+			visitor.onBankStart(name, hash, rate, frames1);
+
+			for (int j = 0; j < frames1; j++) {
 				float x = ANIM.getFloat();
 				float y = ANIM.getFloat();
 				float w = ANIM.getFloat();
 				float h = ANIM.getFloat();
 				int elements1 = ANIM.getInt();
-				List<ANIMElement> elementsList = new ArrayList<>();
-				ANIMFrame frame = new ANIMFrame();
-				frame.x = x;
-				frame.y = y;
-				frame.w = w;
-				frame.h = h;
-				Utilities.PrintDebug("animation frame=(" +x + ","+y+","+w+","+h+")");
-				frame.elements = elements1;
-				frame.elementsList = elementsList;
-
-				for (int k = 0; k < frame.elements; k++) {
-					int image = ANIM.getInt();
-					int index = ANIM.getInt();
-					int layer = ANIM.getInt();
-					int flags = ANIM.getInt();
-					float a = ANIM.getFloat();
-					float b = ANIM.getFloat();
-					float g = ANIM.getFloat();
-					float r = ANIM.getFloat();
-					float m1 = ANIM.getFloat();
-					float m2 = ANIM.getFloat();
-					float m3 = ANIM.getFloat();
-					float m4 = ANIM.getFloat();
-					float m5 = ANIM.getFloat();
-					float m6 = ANIM.getFloat();
-					Utilities.PrintDebug("internal=("+m5+","+m6+")");
-					Utilities.PrintDebug("layer="+layer);
-					float order = ANIM.getFloat();
-					ANIMElement element = new ANIMElement();
-					element.image = image;
-					element.index = index;
-					element.layer = layer;
-					element.flags = flags;
-					element.a = a;
-					element.b = b;
-					element.g = g;
-					element.r = r;
-					element.m1 = m1;
-					element.m2 = m2;
-					element.m3 = m3;
-					element.m4 = m4;
-					element.m5 = m5;
-					element.m6 = m6;
-					element.order = order;
-					frame.elementsList.add(element);
+				Trace.READER.trace("frame").with("x", x).with("y", y).with("w", w).with("h", h).emit();
+				visitor.onFrame(x, y, w, h, elements1);
+
+				for (int k = 0; k < elements1; k++) {
+					element.image = ANIM.getInt();
+					element.index = ANIM.getInt();
+					element.layer = ANIM.getInt();
+					element.flags = ANIM.getInt();
+					element.a = ANIM.getFloat();
+					element.b = ANIM.getFloat();
+					element.g = ANIM.getFloat();
+					element.r = ANIM.getFloat();
+					element.m1 = ANIM.getFloat();
+					element.m2 = ANIM.getFloat();
+					element.m3 = ANIM.getFloat();
+					element.m4 = ANIM.getFloat();
+					element.m5 = ANIM.getFloat();
+					element.m6 = ANIM.getFloat();
+					element.order = ANIM.getFloat();
+					Trace.READER.trace("element").with("image", element.image).with("layer", element.layer)
+							.with("m5", element.m5).with("m6", element.m6).emit();
+					visitor.onElement(element);
 				}
-				Utilities.PrintDebug("");
-				bank.framesList.add(frame);
 			}
-			ANIMData.animList.add(bank);
+			visitor.onBankEnd();
 		}
-		int maxVisSymbolFrames = ANIM.getInt();
-		ANIMData.maxVisSymbolFrames = maxVisSymbolFrames;
+		visitor.onEnd(index.maxVisSymbolFrames);
+	}
 
-		Map<Integer, String> ANIMHash = new HashMap<>();
-		int num = ANIM.getInt();
-		for (int i = 0; i < num; i++) {
-			int hash = ANIM.getInt();
-			String text = readString(ANIM);
-			ANIMHash.put(hash, text);
-		}
+	public void parseANIMData() throws IOException {
+		if (ANIMparsed) return;
+
+		int firstSymbol = symbols.size();
+		ANIMBuilder builder = new ANIMBuilder(symbols);
+		visitANIMData(builder);
+		ANIM ANIMData = builder.ANIMData;
 
-		Map<String, Integer> ANIMIdMap = new HashMap<>();
-		int key = 0;
+		LongIntMap ANIMIdMap = new LongIntMap();
+		long[] ANIMIdKeys = new long[16];
 		for (ANIMBank bank : ANIMData.animList) {
 			for (ANIMFrame frame : bank.framesList) {
 				for (ANIMElement element : frame.elementsList) {
-					String name = ANIMHash.get(element.image) + '_' + element.index + '_' + ANIMHash.get(element.layer);
-					if (!ANIMIdMap.containsKey(name)) {
-						ANIMIdMap.put(name, key);
-						key += 1;
+					int sprite = symbols.sprite(symbols.idOf(element.image), element.index);
+					long key = ((long) sprite << 32) | (symbols.idOf(element.layer) & 0xffffffffL);
+					if (ANIMIdMap.get(key) == LongIntMap.EMPTY) {
+						int id = ANIMIdMap.size();
+						if (id == ANIMIdKeys.length) ANIMIdKeys = Arrays.copyOf(ANIMIdKeys, id * 2);
+						ANIMIdKeys[id] = key;
+						ANIMIdMap.put(key, id);
 					}
 				}
 			}
 		}
 
 		this.ANIMData = ANIMData;
-		this.ANIMHash = ANIMHash;
 		this.ANIMIdMap = ANIMIdMap;
+		this.ANIMIdKeys = ANIMIdKeys;
 		this.ANIMparsed = true;
 		printANIMData();
-		printANIMHash();
+		printSymbols(firstSymbol);
 		printANIMIdMap();
 	}
 
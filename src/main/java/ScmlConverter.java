@@ -1,240 +1,37 @@
-import com.badlogic.gdx.tools.texturepacker.TexturePacker;
 import java.awt.geom.Point2D;
-import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 public class ScmlConverter {
 
-	private static final int KleiHash(String str) {
-		if (str == null) {
-			return 0;
-		}
-		int num = 0;
-		for (int i = 0; i < str.length(); i++) {
-			num = ((int) str.toLowerCase().charAt(i)) + (num << 6) + (num << 16) - num;
-		}
-		return num;
-	}
-	
 	private static final int BILD_VERSION = 10;
 	private static final int ANIM_VERSION = 5;
 	private static final int MS_PER_S = 1000;
 
-	private Document scml;
+	private ScmlProject scml;
 
-	public static Document loadSCML(String path) throws IOException, SAXException, ParserConfigurationException {
-		DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-		Document scml = documentBuilder.parse(new File(path));
-		return scml;
+	public static ScmlProject loadSCML(String path) throws IOException, XMLStreamException {
+		return ScmlProject.load(Path.of(path));
 	}
 
-	public ScmlConverter(Document scml) {
+	public ScmlConverter(ScmlProject scml) {
 		this.scml = scml;
 	}
 
-	private Element firstMatching(String name) {
-		NodeList list = scml.getElementsByTagName(name);
-		if (list == null || list.getLength() < 1) throw new RuntimeException("Could not find any tags with name");
-		return (Element) list.item(0);
-	}
-
-	private Element firstMatching(Element parent, String name) {
-		NodeList list = parent.getElementsByTagName(name);
-		if (list.getLength() < 1) throw new RuntimeException("Could not find any tags with name");
-		return (Element) list.item(0);
-	}
-
 	private String nameOfEntity() {
-		Element entity = firstMatching("entity");
-		return entity.getAttribute("name");
-	}
-
-	private void writeInt(DataOutputStream out, int val) throws IOException {
-		ByteBuffer buffer = ByteBuffer.allocate(4);
-		buffer.order(ByteOrder.LITTLE_ENDIAN);
-		byte[] asBytes = buffer.putInt(val).array();
-		out.write(asBytes);
-	}
-
-	private void writeFloat(DataOutputStream out, float val) throws IOException {
-		ByteBuffer buffer = ByteBuffer.allocate(4);
-		buffer.order(ByteOrder.LITTLE_ENDIAN);
-		byte[] asBytes = buffer.putFloat(val).array();
-		out.write(asBytes);
-	}
-
-	private void writeString(DataOutputStream out, String val) throws IOException {
-		writeString(out, val, true);
-	}
-
-	private void writeString(DataOutputStream out, String val, boolean writeLength) throws IOException {
-		if (writeLength) {
-			writeInt(out, val.length());
-		}
-		byte[] asBytes = val.getBytes(StandardCharsets.US_ASCII);
-		out.write(asBytes);
-	}
-
-	private String getFileExtension(File file) {
-		String filePath = file.getAbsolutePath();
-		int i = filePath.lastIndexOf('.');
-		if (i > 0) {
-			return filePath.substring(i + 1);
-		} else {
-			return "";
-		}
-	}
-
-	/*
-	 * may throw an exception if file name is improper formatted
-	 */
-	private String getFileFrameCount(File file) {
-		String filePath = file.getAbsolutePath();
-		int i = filePath.lastIndexOf('.');
-		String subFilePath = filePath.substring(0, i);
-		int j = subFilePath.lastIndexOf('_');
-		String frameCount = subFilePath.substring(j + 1);
-		return frameCount;
-	}
-
-	private void setSymbolsAndFrames(BILD BILDData, String baseTexturePath, String ignoredFile) {
-		File textureFolder = new File(baseTexturePath);
-		File[] children = textureFolder.listFiles();
-		BILDData.symbols = 0;
-		BILDData.frames = 0; // frames count starts from 0
-		if (children == null) return;
-
-		for (File child : children) {
-            if (getFileExtension(child).equals("png")) {
-				BILDData.frames++;
-				try {
-					String frameCount = getFileFrameCount(child);
-					if (Integer.parseInt(frameCount) == 0) {
-						BILDData.symbols++;
-					}
-				} catch (IndexOutOfBoundsException | NumberFormatException e) {
-					if (child.getPath().equals(ignoredFile))
-					    Utilities.PrintDebug(String.format("BILD> Found file named %s, ignoring.", child.getName()));
-					throw new RuntimeException(String.format("Improperly formatted texture name %s. Filenames should end in _[number], e.g. body_0.png.", child.getName()));
-				}
-			}
-		}
-	}
-
-	private static class AtlasEntry {
-		public String name;
-		public boolean rotate;
-		int x, y;
-		int w, h;
-		int originX, originY;
-		int offsetX, offsetY;
-		int index;
-
-		public String toString() {
-			return String.format("[AtlasEntry \"%s:%d\"]", name, index);
-		}
-	}
-
-	private String getOne(String line) {
-		int i = line.lastIndexOf(':');
-		String after = line.substring(i + 1);
-		return after.trim();
-	}
-
-	private String getFirst(String line) {
-		int i = line.lastIndexOf(':');
-		String after = line.substring(i + 1);
-		String[] tokens = after.split(",");
-		return tokens[0].trim();
+		if (scml.entityName == null) throw new RuntimeException("Could not find any tags with name");
+		return scml.entityName;
 	}
 
-	private String getSecond(String line) {
-		int i = line.lastIndexOf(':');
-		String after = line.substring(i + 1);
-		String[] tokens = after.split(",");
-		return tokens[1].trim();
-	}
-
-	private AtlasEntry attemptParseEntry(BufferedReader reader) throws IOException {
-		String name = reader.readLine();
-		boolean rotate = Boolean.parseBoolean(getOne(reader.readLine()));
-		String xy = reader.readLine();
-		int x = Integer.parseInt(getFirst(xy));
-		int y = Integer.parseInt(getSecond(xy));
-		String size = reader.readLine();
-		int w = Integer.parseInt(getFirst(size));
-		int h = Integer.parseInt(getSecond(size));
-		String origin = reader.readLine();
-		int originX = Integer.parseInt(getFirst(origin));
-		int originY = Integer.parseInt(getSecond(origin));
-		String offset = reader.readLine();
-		int offsetX = Integer.parseInt(getFirst(offset));
-		int offsetY = Integer.parseInt(getSecond(offset));
-		int index = Integer.parseInt(getOne(reader.readLine()));
-		AtlasEntry entry = new AtlasEntry();
-		entry.name = name;
-		entry.rotate = rotate;
-		entry.x = x;
-		entry.y = y;
-		entry.w = w;
-		entry.h = h;
-		entry.originX = originX;
-		entry.originY = originY;
-		entry.offsetX = offsetX;
-		entry.offsetY = offsetY;
-		entry.index = index;
-		return entry;
-	}
-
-	private List<AtlasEntry> getOrderedAtlasEntries(BufferedReader reader) throws IOException {
-		// first 6 lines are unnecessary defs
-		reader.readLine();
-		reader.readLine();
-		reader.readLine();
-		reader.readLine();
-		reader.readLine();
-		reader.readLine();
-		List<AtlasEntry> entries = new ArrayList<>();
-		while (reader.ready()) {
-			try {
-				AtlasEntry entry = attemptParseEntry(reader);
-				entries.add(entry);
-			} catch (Exception e) {
-				continue;
-			}
-		}
-		return entries;
-	}
-
-	private Map<String, Integer> getHashTable(List<AtlasEntry> entries) {
-		Map<String, Integer> hashTable = new HashMap<>();
+	private SymbolTable getHashTable(List<AtlasEntry> entries) {
+		SymbolTable symbols = new SymbolTable();
 		for (AtlasEntry entry : entries) {
-			if (!hashTable.containsKey(entry.name)) {
-				hashTable.put(entry.name, KleiHash(entry.name));
-			}
+			symbols.intern(entry.name);
 		}
-		return hashTable;
+		return symbols;
 	}
 
 	private Map<String, Integer> getHistogram(List<AtlasEntry> entries) {
@@ -249,29 +46,81 @@ public class ScmlConverter {
 		return histogram;
 	}
 
-	private Map<AtlasEntry, Element> getAtlasMap(List<AtlasEntry> orderedAtlasEntries) {
-		Element folder = firstMatching("folder");
-		NodeList children = folder.getChildNodes();
-		List<Element> elementList = new ArrayList<>();
-		for (int i = 0; i < children.getLength(); i++) {
-			Node file = children.item(i);
-			if (file instanceof Element) {
-				elementList.add((Element) file);
+	/*
+	 * maps each atlas entry to the index of its file in the scml
+	 * the files are indexed once by sprite name ("name_index" without the .png some files have), the last file with a name wins
+	 * sprites with no file are an error, files that share a name or have no sprite in the atlas are only reported
+	 */
+	private Map<AtlasEntry, Integer> getAtlasMap(List<AtlasEntry> orderedAtlasEntries) {
+		if (!scml.hasFolder) throw new RuntimeException("Could not find any tags with name");
+		Map<String, Integer> fileOf = new HashMap<>();
+		Set<String> duplicates = new LinkedHashSet<>();
+		for (int i = 0; i < scml.files; i++) {
+			String sprite = scml.fileName[i];
+			if (sprite.endsWith(".png")) {
+				sprite = sprite.substring(0, sprite.length() - 4);
+			}
+			if (fileOf.put(sprite, i) != null) {
+				duplicates.add(sprite);
 			}
 		}
-		Map<AtlasEntry, Element> map = new HashMap<>();
-		// this requires that no other image files be in the directory that are put into the atlas that aren't referenced in the file
-		for (int i = 0; i < elementList.size(); i++) {
-			for (AtlasEntry entry : orderedAtlasEntries) {
-				if (elementList.get(i).getAttribute("name").equals(entry.name + '_' + entry.index) 
-						|| elementList.get(i).getAttribute("name").contentEquals(entry.name + '_' + entry.index + ".png")) {
-					map.put(entry, elementList.get(i));
-				}
+
+		Map<AtlasEntry, Integer> map = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		Set<String> packed = new HashSet<>();
+		for (AtlasEntry entry : orderedAtlasEntries) {
+			String sprite = entry.name + '_' + entry.index;
+			Integer file = fileOf.get(sprite);
+			if (file == null) {
+				missing.add(sprite);
+			} else {
+				map.put(entry, file);
+				packed.add(sprite);
 			}
 		}
+
+		if (!duplicates.isEmpty()) {
+			Utilities.PrintInfo(String.format("More than one file in the scml file is named %s, the last one is used.",
+					quoted(duplicates)));
+		}
+		List<String> unused = new ArrayList<>();
+		for (String sprite : fileOf.keySet()) {
+			if (!packed.contains(sprite)) unused.add(sprite);
+		}
+		if (!unused.isEmpty()) {
+			Collections.sort(unused);
+			Utilities.PrintInfo(String.format("The scml file has files with no texture, they are ignored: %s.", quoted(unused)));
+		}
+		if (missing.size() == 1) {
+			throw new RuntimeException(String.format("The sprite %s was not found in the scml file. All sprites must be included in the scml file.", quoted(missing)));
+		}
+		if (!missing.isEmpty()) {
+			throw new RuntimeException(String.format("The sprites %s were not found in the scml file. All sprites must be included in the scml file.", quoted(missing)));
+		}
 		return map;
 	}
 
+	// "a", "b" and 3 more
+	private static String quoted(Collection<String> names) {
+		StringBuilder out = new StringBuilder();
+		int shown = 0;
+		for (String name : names) {
+			if (shown == 10) {
+				return out.append(String.format(" and %d more", names.size() - shown)).toString();
+			}
+			if (shown > 0) out.append(", ");
+			out.append('"').append(name).append('"');
+			shown++;
+		}
+		return out.toString();
+	}
+
+	// packs the sprites in the input directory into <name>.png in the output directory
+	public SpriteSheet packTexture(Path inputPath, Path outputPath) throws IOException {
+		Path cachePath = Main.settings.PACK_CACHE == null ? null : Path.of(Main.settings.PACK_CACHE);
+		return SpriteSheet.pack(inputPath, outputPath.resolve(nameOfEntity() + ".png"), Main.settings.THREADS, cachePath);
+	}
+
 	/**
 	 * Packs the BILD file given the scml file
 	 * Note that this will not work with *any* scml file
@@ -284,45 +133,34 @@ public class ScmlConverter {
 	 *
 	 * If this invariant is not maintained, I have no idea if packBILD will work
 	 */
-	public void packBILD(Path inputPath, Path outputPath) throws IOException {
-		TexturePacker.Settings settings = new TexturePacker.Settings();
-		settings.silent = true;
-		settings.square = true;
+	public void packBILD(SpriteSheet sheet, Path outputPath) throws IOException {
 		String name = nameOfEntity();
-		TexturePacker.process(settings, inputPath.toString(), outputPath.toString(), name);
-		Path imgPath = outputPath.resolve(name + ".png");
-		Path atlasPath = outputPath.resolve(name + ".atlas");
-		// read the produced atlas file to know what data must be included in the BILD file
-		BufferedReader reader = new BufferedReader(new FileReader(atlasPath.toFile()));
 
 		BILD BILDData = new BILD();
 		BILDData.version = BILD_VERSION;
-		setSymbolsAndFrames(BILDData, inputPath.toString(), imgPath.toString());
+		// the pngs are the frames, and the ones numbered 0 are counted as the symbols
+		BILDData.frames = sheet.sprites;
+		BILDData.symbols = sheet.firstFrames;
 		BILDData.name = name;
 
-		List<AtlasEntry> orderedAtlasEntries = getOrderedAtlasEntries(reader);
-		Map<String, Integer> hashTable = new Hashtable<>();
+		// the packed sprites are what must be included in the BILD file
+		List<AtlasEntry> orderedAtlasEntries = sheet.entries;
+		SymbolTable symbols = new SymbolTable();
 		Map<String, Integer> histogram = getHistogram(orderedAtlasEntries);
-		Map<AtlasEntry, Element> atlasMap = getAtlasMap(orderedAtlasEntries);
+		Map<AtlasEntry, Integer> atlasMap = getAtlasMap(orderedAtlasEntries);
 
 		BILDData.symbolsList = new ArrayList<>();
 		int symbolIndex = -1;
-		BufferedImage packedImg = ImageIO.read(new File(imgPath.toString()));
-		int imgWidth = packedImg.getWidth();
-		int imgHeight = packedImg.getHeight();
+		int imgWidth = sheet.width;
+		int imgHeight = sheet.height;
 		String lastName = null;
 		for (AtlasEntry entry : orderedAtlasEntries) {
 			if (!entry.name.equals(lastName)) {
 				BILDSymbol symbol = new BILDSymbol();
-				// The hash table caches a KleiHash translation of all sprites.
-				// It may be unnecessary but the original had it, and I don't know if the performance impact is
-				// small enough to remove it.
-				if (!hashTable.containsKey(entry.name)) {
-					hashTable.put(entry.name, KleiHash(entry.name));
-				}
-				symbol.hash = hashTable.get(entry.name);
+				// the symbol table caches a KleiHash translation of all sprites and becomes the file's hash table
+				symbol.hash = symbols.hash(symbols.intern(entry.name));
 
-				symbol.path = hashTable.get(entry.name);
+				symbol.path = symbol.hash;
 				symbol.color = 0; // no Klei files use color other than 0 so fair assumption is it can be 0
 				// only check in decompile for flag checks flag = 8 for a layered anim (which we won't do)
 				// so should be safe to leave flags = 0
@@ -352,177 +190,125 @@ public class ScmlConverter {
 			// do not set frame.time since it was a calculated property and not actually used in kbild
 			frame.pivotWidth = entry.w * 2;
 			frame.pivotHeight = entry.h * 2;
-			var element = atlasMap.get(entry);
-			if (element == null) {
-				throw new RuntimeException(String.format("The sprite \"%s_%d\" was not found in the scml file. All sprites must be included in the scml file.", entry.name, entry.index));
+			int file = atlasMap.get(entry);
+			if (Float.isNaN(scml.pivotX[file]) || Float.isNaN(scml.pivotY[file])) {
+				throw new RuntimeException(String.format("The sprite \"%s_%d\" has no valid pivot in the scml file.", entry.name, entry.index));
 			}
-			frame.pivotX = -(Float.parseFloat(atlasMap.get(entry).getAttribute("pivot_x")) - 0.5f) * frame.pivotWidth;
-			frame.pivotY = (Float.parseFloat(atlasMap.get(entry).getAttribute("pivot_y")) - 0.5f) * frame.pivotHeight;
+			frame.pivotX = -(scml.pivotX[file] - 0.5f) * frame.pivotWidth;
+			frame.pivotY = (scml.pivotY[file] - 0.5f) * frame.pivotHeight;
 			BILDData.symbolsList.get(symbolIndex).framesList.add(frame);
 		}
 
-		DataOutputStream out = new DataOutputStream(
-				new FileOutputStream(outputPath.resolve(name + "_build.bytes").toString()));
-		writeString(out, "BILD", false);
-		// have to use custom write for noncharacter strings because need to write in little endian
-		writeInt(out, BILD_VERSION);
-		Utilities.PrintDebug("version="+ BILD_VERSION);
-		writeInt(out, BILDData.symbols);
-		Utilities.PrintDebug("symbols="+BILDData.symbols);
-		writeInt(out, BILDData.frames);
-		Utilities.PrintDebug("frames="+BILDData.frames);
-		writeString(out, BILDData.name);
-		Utilities.PrintDebug("name="+BILDData.name);
-		int i = 0;
-		for (BILDSymbol symbol : BILDData.symbolsList) {
-			Utilities.PrintDebug("symbol " + i + "=("+symbol.hash+","+symbol.path+","+symbol.color+","+symbol.flags+","+symbol.numFrames+")");
-			writeInt(out, symbol.hash);
-			writeInt(out, symbol.path);
-			writeInt(out, symbol.color);
-			writeInt(out, symbol.flags);
-			writeInt(out, symbol.numFrames);
-			int j = 0;
-			for (BILDFrame frame : symbol.framesList) {
-				writeInt(out, frame.sourceFrameNum);
-				writeInt(out, frame.duration);
-				writeInt(out, frame.buildImageIdx);
-				writeFloat(out, frame.pivotX);
-				writeFloat(out, frame.pivotY);
-				writeFloat(out, frame.pivotWidth);
-				writeFloat(out, frame.pivotHeight);
-				writeFloat(out, frame.x1);
-				writeFloat(out, frame.y1);
-				writeFloat(out, frame.x2);
-				writeFloat(out, frame.y2);
-				j++;
+		try (KAnimOutputStream out = new KAnimOutputStream(outputPath.resolve(name + "_build.bytes"), sizeOf(BILDData, symbols))) {
+			out.writeHeader("BILD");
+			out.writeInt(BILD_VERSION);
+			out.writeInt(BILDData.symbols);
+			out.writeInt(BILDData.frames);
+			out.writeString(BILDData.name);
+			Trace.PACKER.debug("build").with("version", BILD_VERSION).with("symbols", BILDData.symbols)
+					.with("frames", BILDData.frames).with("name", BILDData.name).emit();
+			int i = 0;
+			for (BILDSymbol symbol : BILDData.symbolsList) {
+				Trace.PACKER.trace("symbol").with("index", i).with("hash", symbol.hash).with("path", symbol.path)
+						.with("color", symbol.color).with("flags", symbol.flags).with("frames", symbol.numFrames).emit();
+				out.writeInt(symbol.hash);
+				out.writeInt(symbol.path);
+				out.writeInt(symbol.color);
+				out.writeInt(symbol.flags);
+				out.writeInt(symbol.numFrames);
+				int j = 0;
+				for (BILDFrame frame : symbol.framesList) {
+					out.writeInt(frame.sourceFrameNum);
+					out.writeInt(frame.duration);
+					out.writeInt(frame.buildImageIdx);
+					out.writeFloat(frame.pivotX);
+					out.writeFloat(frame.pivotY);
+					out.writeFloat(frame.pivotWidth);
+					out.writeFloat(frame.pivotHeight);
+					out.writeFloat(frame.x1);
+					out.writeFloat(frame.y1);
+					out.writeFloat(frame.x2);
+					out.writeFloat(frame.y2);
+					j++;
+				}
+				i++;
 			}
-			i++;
+
+			writeHashTable(out, symbols);
 		}
+	}
 
-		writeInt(out, hashTable.entrySet().size());
-		for (Map.Entry<String, Integer> hashPair : hashTable.entrySet()) {
-			Utilities.PrintDebug(hashPair.getValue()+"="+hashPair.getKey());
-			writeInt(out, hashPair.getValue());
-			writeString(out, hashPair.getKey());
+	// the bytes packBILD and packANIM write, so the files can be sized up front
+	private static long sizeOf(BILD BILDData, SymbolTable symbols) {
+		long size = 4 + 3 * 4 + KAnimOutputStream.sizeOf(BILDData.name);
+		for (BILDSymbol symbol : BILDData.symbolsList) {
+			size += 5 * 4 + symbol.framesList.size() * 11L * 4;
 		}
-		out.close();
+		return size + sizeOfHashTable(symbols);
 	}
 
-	private Element getMainline(NodeList timelines) {
-		for (int i = 0; i < timelines.getLength(); i++) {
-			if (!(timelines.item(i) instanceof Element)) {
-				Utilities.PrintDebug("skipping non-element tag");
-				continue;
-			}
-			Element ele = (Element) timelines.item(i);
-			if (ele.getTagName().equals("mainline")) {
-				return ele;
-			}
+	private static long sizeOf(ANIM ANIMData, SymbolTable symbols) {
+		long size = 4 + 4 * 4;
+		for (ANIMBank bank : ANIMData.animList) {
+			size += KAnimOutputStream.sizeOf(bank.name) + 3 * 4;
+			size += bank.columns.frames * 5L * 4 + bank.columns.elements * 15L * 4;
 		}
-		throw new RuntimeException("SCML format exception - no mainline tag child of animation");
+		return size + 4 + sizeOfHashTable(symbols);
 	}
 
-	private Map<Integer, Element> getTimelineMap(NodeList timelines) {
-		Map<Integer, Element> map = new HashMap<>();
-		for (int i = 0; i < timelines.getLength(); i++) {
-			if (!(timelines.item(i) instanceof Element)) {
-				continue;
-			}
-			Element ele = (Element) timelines.item(i);
-			if (ele.getTagName().equals("timeline")) {
-				map.put(Integer.parseInt(ele.getAttribute("id")), ele);
-			}
+	private static long sizeOfHashTable(SymbolTable symbols) {
+		long size = 4;
+		for (int id = 0; id < symbols.size(); id++) {
+			size += 4 + KAnimOutputStream.sizeOf(symbols.name(id));
+		}
+		return size;
+	}
+
+	private void writeHashTable(KAnimOutputStream out, SymbolTable symbols) throws IOException {
+		out.writeInt(symbols.size());
+		for (int id = 0; id < symbols.size(); id++) {
+			Trace.PACKER.trace("hash").with("hash", symbols.hash(id)).with("name", symbols.name(id)).emit();
+			out.writeInt(symbols.hash(id));
+			out.writeString(symbols.name(id));
+		}
+	}
+
+	// maps the ids of the animation's timelines to their index in the scml
+	private Map<Integer, Integer> getTimelineMap(int anim) {
+		Map<Integer, Integer> map = new HashMap<>();
+		for (int timeline = scml.timelineStart[anim]; timeline < scml.timelineStart[anim + 1]; timeline++) {
+			map.put(scml.timelineId[timeline], timeline);
 		}
 		return map;
 	}
 
 	private void setAggregateData(ANIM ANIMData) {
-		Element entity = firstMatching("entity");
-		NodeList animations = entity.getChildNodes();
+		if (scml.entityName == null) throw new RuntimeException("Could not find any tags with name");
+		if (scml.animationError != null) throw new RuntimeException(scml.animationError);
 		int maxVisibleSymbolFrames = 0;
-		for (int anim = 0; anim < animations.getLength(); anim++) {
-			if (!(animations.item(anim) instanceof Element)) {
-				Utilities.PrintDebug("skipping non-element child");
-				continue;
-			}
-			Element animation = (Element) animations.item(anim);
-			if (!animation.getTagName().equals("animation")) {
-				throw new RuntimeException("SCML format exception - all children of entity must be animation tags");
-			}
-			NodeList timelines = animation.getChildNodes();
-			Element mainline = getMainline(timelines);
-			NodeList keyFrames = mainline.getChildNodes();
-			for (int frame = 0; frame < keyFrames.getLength(); frame++) {
-				if (!(keyFrames.item(frame) instanceof Element)) {
-					Utilities.PrintDebug("skipping non-element child");
-					continue;
-				}
-				Element key = (Element) keyFrames.item(frame);
-				if (!key.getTagName().equals("key")) {
-					throw new RuntimeException("SCML format exception - all children of animation must be key tags");
-				}
-				NodeList objects = key.getChildNodes();
-				for (int object = 0; object < objects.getLength(); object++) {
-					if (!(objects.item(object) instanceof Element)) {
-						continue;
-					}
-					Element objectRef = (Element) objects.item(object);
-					if (!objectRef.getTagName().equals("object_ref")) {
-						throw new RuntimeException("SCML format exception - all chilredn of key must be object_ref tags");
-					}
-					if (objects.getLength() > maxVisibleSymbolFrames) {
-						maxVisibleSymbolFrames = objects.getLength();
-					}
-				}
+		for (int key = 0; key < scml.keys; key++) {
+			// counted every child node of the key, including the text between tags, as long as it had an object_ref
+			if (scml.refStart[key + 1] > scml.refStart[key] && scml.childNodes[key] > maxVisibleSymbolFrames) {
+				maxVisibleSymbolFrames = scml.childNodes[key];
 			}
 		}
-		ANIMData.anims = animations.getLength();
+		ANIMData.anims = scml.animations;
 		// these two bits of data are ignored by Klei/the kanim format so don't bother calculating them
 		ANIMData.frames = 0;
 		ANIMData.elements = 0;
 		ANIMData.maxVisSymbolFrames = maxVisibleSymbolFrames;
 	}
 
-	private Map<Integer, Element> getFileMap() {
-		Element folder = firstMatching("folder");
-		Map<Integer, Element> fileMap = new HashMap<>();
-		NodeList files = folder.getChildNodes();
-		for (int i = 0; i < files.getLength(); i++) {
-			if (!(files.item(i) instanceof Element)) {
-				continue;
-			}
-			Element file = (Element) files.item(i);
-			if (!file.getTagName().equals("file")) {
-				throw new RuntimeException("SCML format exception - all children of folder must be file tags");
-			}
-			int id = Integer.parseInt(file.getAttribute("id"));
-			fileMap.put(id, file);
+	// file map is a mapping from the ids assigned to each image file and its index in the scml
+	private Map<Integer, Integer> getFileMap() {
+		if (!scml.hasFolder) throw new RuntimeException("Could not find any tags with name");
+		Map<Integer, Integer> fileMap = new HashMap<>();
+		for (int i = 0; i < scml.files; i++) {
+			fileMap.put(scml.fileId[i], i);
 		}
 		return fileMap;
 	}
 
-	private Element getFrameFromTimeline(Element timeline, int frame) {
-		NodeList keyList = timeline.getChildNodes();
-		for (int i = 0; i < keyList.getLength(); i++) {
-			if (!(keyList.item(i) instanceof Element)) {
-				continue;
-			}
-			Element key = (Element) keyList.item(i);
-			if (!key.getTagName().equals("key")) {
-				throw new RuntimeException("SCML format exception - all children of timeline must be key tags");
-			}
-			if (Integer.parseInt(key.getAttribute("id")) == frame) {
-				return key;
-			}
-		}
-		throw new RuntimeException(
-			String.format(
-				"Error: While parsing SCML, expected frame %d to exist in timeline %s (of anim %s) but it did not.",
-					frame,
-					timeline.getAttribute("id"),
-					timeline.getParentNode().getAttributes().getNamedItem("name").getNodeValue()));
-	}
-
 	private String getImageName(String image) {
 		int i = image.lastIndexOf('_');
 		return image.substring(0, i);
@@ -548,21 +334,9 @@ public class ScmlConverter {
 		return point4;
 	}
 
-	private void populateHashTableWithAnimations(Map<String, Integer> hashTable) {
-		Element entity = firstMatching("entity");
-		NodeList animations = entity.getChildNodes();
-		for (int anim = 0; anim < animations.getLength(); anim++) {
-			if (!(animations.item(anim) instanceof Element)) {
-				continue;
-			}
-			Element animation = (Element) animations.item(anim);
-			if (!animation.getTagName().equals("animation")) {
-				throw new RuntimeException("SCML format exception - all children of entity must be animation tags");
-			}
-			String name = animation.getAttribute("name");
-			if (!hashTable.containsKey(name)) {
-				hashTable.put(name, KleiHash(name));
-			}
+	private void populateHashTableWithAnimations(SymbolTable symbols) {
+		for (int anim = 0; anim < scml.animations; anim++) {
+			symbols.intern(scml.animName[anim]);
 		}
 	}
 
@@ -570,71 +344,89 @@ public class ScmlConverter {
 		public float x, y, angle, scaleX, scaleY;
 	}
 
-	public void packANIM(Path atlasPath, Path outputPath) throws IOException {
+	public void packANIM(SpriteSheet sheet, Path outputPath) throws IOException {
 		String name = nameOfEntity();
 
+		// could build hash table different way but this code already works for BILD making
+		// hash table so just reuse it here
+		SymbolTable symbols = getHashTable(sheet.entries);
+
+		ANIM ANIMData = buildANIM(symbols);
+
+		try (KAnimOutputStream out = new KAnimOutputStream(outputPath.resolve(name + "_anim.bytes"), sizeOf(ANIMData, symbols))) {
+			out.writeHeader("ANIM");
+			// simply read through built ANIM data structure and write out the properties
+			out.writeInt(ANIMData.version);
+			out.writeInt(ANIMData.elements);
+			out.writeInt(ANIMData.frames);
+			out.writeInt(ANIMData.anims);
+			for (ANIMBank bank : ANIMData.animList) {
+				out.writeString(bank.name);
+				out.writeInt(bank.hash);
+				out.writeFloat(bank.rate);
+				out.writeInt(bank.frames);
+				ANIMColumns columns = bank.columns;
+				for (int frame = 0; frame < columns.frames; frame++) {
+					out.writeFloat(columns.x[frame]);
+					out.writeFloat(columns.y[frame]);
+					out.writeFloat(columns.w[frame]);
+					out.writeFloat(columns.h[frame]);
+					out.writeInt(columns.elementCount(frame));
+					for (int element = columns.start(frame); element < columns.end(frame); element++) {
+						out.writeInt(columns.image[element]);
+						out.writeInt(columns.index[element]);
+						out.writeInt(columns.layer[element]);
+						out.writeInt(columns.flags[element]);
+						out.writeFloat(columns.a[element]);
+						out.writeFloat(columns.b[element]);
+						out.writeFloat(columns.g[element]);
+						out.writeFloat(columns.r[element]);
+						out.writeFloat(columns.m1[element]);
+						out.writeFloat(columns.m2[element]);
+						out.writeFloat(columns.m3[element]);
+						out.writeFloat(columns.m4[element]);
+						out.writeFloat(columns.m5[element]);
+						out.writeFloat(columns.m6[element]);
+						out.writeFloat(columns.order[element]);
+					}
+				}
+			}
+			out.writeInt(ANIMData.maxVisSymbolFrames);
+
+			writeHashTable(out, symbols);
+		}
+	}
+
+	// builds the banks of the scml's animations, the symbols must hold the atlas entries and gets the animation names added
+	public ANIM buildANIM(SymbolTable symbols) {
 		ANIM ANIMData = new ANIM();
 		ANIMData.version = ANIM_VERSION;
 		setAggregateData(ANIMData);
 		ANIMData.animList = new ArrayList<>();
 
-		// could build hash table different way but this code already works for BILD making
-		// hash table so just reuse it here
-		BufferedReader reader = new BufferedReader(new FileReader(atlasPath.toFile()));
-		List<AtlasEntry> orderedAtlasEntries = getOrderedAtlasEntries(reader);
-		Map<String, Integer> hashTable = getHashTable(orderedAtlasEntries);
-
-		populateHashTableWithAnimations(hashTable);
+		populateHashTableWithAnimations(symbols);
 
-		// file map is a mapping from the ids assigned to each image file and the xml element that represents it
-		Map<Integer, Element> fileMap = getFileMap();
-
-		Element entity = firstMatching("entity");
-		NodeList animations = entity.getChildNodes();
-		int animCount = 0;
-		for (int anim = 0; anim < animations.getLength(); anim++) {
-			if (!(animations.item(anim) instanceof Element)) {
-				continue;
-			}
-			animCount++;
-			Element animation = (Element) animations.item(anim);
-			if (!animation.getTagName().equals("animation")) {
-				throw new RuntimeException("SCML format exception - all children of entity must be animation tags");
-			}
+		Map<Integer, Integer> fileMap = getFileMap();
 
+		for (int anim = 0; anim < scml.animations; anim++) {
 			ANIMBank bank = new ANIMBank();
-			bank.name = animation.getAttribute("name");
-			Utilities.PrintDebug("bank.name="+bank.name);
-			Utilities.PrintDebug("hashTable="+hashTable);
-			bank.hash = hashTable.get(bank.name);
-			int interval = 33;
-			try {
-				interval = Integer.parseInt(animation.getAttribute("interval"));
-			} catch (NumberFormatException e) {}
+			bank.name = scml.animName[anim];
+			bank.hash = symbols.hashOf(bank.name);
+			Trace.PACKER.debug("bank").with("name", bank.name).with("hash", bank.hash).emit();
+			int interval = scml.interval[anim];
 			bank.rate = (float) MS_PER_S / interval; // interval is ms per frame so this gets fps
-			bank.framesList = new ArrayList<>();
+			bank.columns = new ANIMColumns();
+			ANIMElement element = new ANIMElement();
 
-			NodeList timelines = animation.getChildNodes();
-			Element mainline = getMainline(timelines);
-			Map<Integer, Element> timelineMap = getTimelineMap(timelines);
-			NodeList keyFrames = mainline.getChildNodes();
+			Map<Integer, Integer> timelineMap = getTimelineMap(anim);
 			int frameCount = 0;
 			Map<Integer, AnimationData> lastDataMap = new HashMap<>();
-			for (int frame = 0; frame < keyFrames.getLength(); frame++) { // mainline key frames are the frames
-				if (!(keyFrames.item(frame) instanceof Element)) {
-					continue;
-				}
+			for (int key = scml.mainlineStart[anim]; key < scml.mainlineStart[anim + 1]; key++) { // mainline key frames are the frames
 				frameCount++;
 
 				// that will be sent to klei kanim format so we have to match the timeline data to key frames
 				// - this matching will be the part for
-				Element key = (Element) keyFrames.item(frame);
-				if (!key.getTagName().equals("key")) {
-					throw new RuntimeException("SCML format exception - all children of animation must be key tags");
-				}
-
-				ANIMFrame ANIMFrame = new ANIMFrame();
-				ANIMFrame.elementsList = new ArrayList<>();
+				int frameIndex = bank.columns.addFrame(0, 0, 0, 0);
 				// the elements for this frame will be all the elements
 				// referenced in the object_ref(s) -> their data will be found
 				// in their timeline
@@ -647,20 +439,9 @@ public class ScmlConverter {
 				float maxX = Float.MIN_VALUE;
 				float maxY = Float.MIN_VALUE;
 
-				// look through object refs - will need to maintain list of object refs
-				// because in the end it must be sorted in accordance with the z-index
-				// before appended in correct order to elementsList
-				NodeList objects = key.getChildNodes();
-				int elementCount = 0;
-				for (int object = 0; object < objects.getLength(); object++) {
-					if (!(objects.item(object) instanceof Element)) {
-						continue;
-					}
-					Element objectRef = (Element) objects.item(object);
-					if (!objectRef.getTagName().equals("object_ref")) {
-						throw new RuntimeException("SCML format exception - all chilredn of key must be object_ref tags");
-					}
-					ANIMElement element = new ANIMElement();
+				// look through object refs - the elements of the frame are
+				// sorted in accordance with the z-index once they have all been added
+				for (int ref = scml.refStart[key]; ref < scml.refStart[key + 1]; ref++) {
 					// we dont' use any flags so set to 0
 					element.flags = 0;
 					// spriter does not support changing colors of components
@@ -672,193 +453,161 @@ public class ScmlConverter {
 					// this field is actually unused entirely (it is parsed but ignored)
 					element.order = 0.0f;
 					// store z Index so later can be reordered
-					element.zIndex = Integer.parseInt(objectRef.getAttribute("z_index"));
-					int timelineId = Integer.parseInt(objectRef.getAttribute("timeline"));
+					element.zIndex = scml.refZIndex[ref];
+					int timelineId = scml.refTimeline[ref];
 
 					// now need to get corresponding timeline object ref
-					Element timeline = timelineMap.get(timelineId);
-					int frameId = Integer.parseInt(objectRef.getAttribute("key"));
-					Element timelineFrame;
-					try {
-						timelineFrame = getFrameFromTimeline(timeline, frameId);
-					} catch (Exception e) {
+					Integer timeline = timelineMap.get(timelineId);
+					int frameId = scml.refKey[ref];
+					int timelineFrame = timeline == null ? -1 : scml.findKey(timeline, frameId);
+					if (timelineFrame == -1) {
 						continue;
 					}
-					Element dataObject = firstMatching(timelineFrame, "object");
+					int flags = scml.keyFlags[timelineFrame];
+					if ((flags & ScmlProject.NO_OBJECT) != 0) {
+						throw new RuntimeException("Could not find any tags with name");
+					}
+					if (scml.keyFile[timelineFrame] == ScmlProject.INVALID) {
+						Trace.PACKER.debug("found invalid file reference - skipping").emit();
+						continue;
+					}
+					Integer image = fileMap.get(scml.keyFile[timelineFrame]);
+					if (image == null) {
+						throw new RuntimeException(String.format("The file %d is not in the folder of the scml file.", scml.keyFile[timelineFrame]));
+					}
+					String imageName = scml.fileName[image];
+					if (imageName.endsWith(".png"))
+					{
+						imageName = imageName.substring(0, imageName.length() - 4);
+					}
+					element.image = symbols.hashOf(getImageName(imageName));
 					try {
-						Element image = fileMap.get(Integer.parseInt(dataObject.getAttribute("file")));
-						String imageName = image.getAttribute("name");
-						if (imageName.endsWith(".png"))
-						{
-							imageName = imageName.substring(0, imageName.length() - 4);
-						}
-						element.image = hashTable.get(getImageName(imageName));
 						element.index = getImageIndex(imageName);
-						// layer doesn't seem to actually be used for anything after it is parsed as a "folder"
-						// but it does need to have an associated string in the hash table so we will just
-						// write layer as the same as the image being used
-						element.layer = hashTable.get(getImageName(imageName));
-						// spriter animation files don't repeat data if it is unchanged between frames
-						// for an object so we have to track the last know value of the data and use
-						// that if we don't see it
-						float scaleX = 1.0f;
-						if (dataObject.hasAttribute("scale_x")) {
-							scaleX = Float.parseFloat(dataObject.getAttribute("scale_x"));
-						} else if (lastDataMap.containsKey(timelineId)) {
-							scaleX = lastDataMap.get(timelineId).scaleX;
-						}
-						float scaleY = 1.0f;
-						if (dataObject.hasAttribute("scale_y")) {
-							scaleY = Float.parseFloat(dataObject.getAttribute("scale_y"));
-						} else if (lastDataMap.containsKey(timelineId)) {
-							scaleY = lastDataMap.get(timelineId).scaleY;
-						}
-						float angle = 0.0f;
-						if (dataObject.hasAttribute("angle")) {
-							angle = Float.parseFloat(dataObject.getAttribute("angle"));
-						} else if (lastDataMap.containsKey(timelineId)) {
-							angle = lastDataMap.get(timelineId).angle;
-						}
-						float xOffset = 0.0f;
-						if (dataObject.hasAttribute("x")) {
-							xOffset = Float.parseFloat(dataObject.getAttribute("x"));
-						} else if (lastDataMap.containsKey(timelineId)) {
-							xOffset = lastDataMap.get(timelineId).x;
-						}
-						float yOffset = 0.0f;
-						if (dataObject.hasAttribute("y")) {
-							yOffset = Float.parseFloat(dataObject.getAttribute("y"));
-						} else if (lastDataMap.containsKey(timelineId)) {
-							yOffset = lastDataMap.get(timelineId).y;
-						}
-						AnimationData data = new AnimationData();
-						data.scaleX = scaleX;
-						data.scaleY = scaleY;
-						data.angle = angle;
-						data.x = xOffset;
-						data.y = yOffset;
-						lastDataMap.put(timelineId, data);
-						element.m5 = xOffset * 2;
-						element.m6 = -yOffset * 2;
-						double angleRadians = Math.toRadians(angle);
-						double sin = Math.sin(angleRadians);
-						double cos = Math.cos(angleRadians);
-						element.m1 = (float) (scaleX * cos);
-						element.m2 = (float) (scaleX * -sin);
-						element.m3 = (float) (scaleY * sin);
-						element.m4 = (float) (scaleY * cos);
-
-						// calculate transformed bounds of this element
-						// note that we actually need the pivot of the element in order to determine where the
-						// element is located b/c the pivot acts as 0,0 for the x and y offsets
-						// additionally it is necessary b/c rotation is done aroudn the pivot
-						// (mathematically compute this as rotation around the origin just composed with
-						// translating the pivot to and from the origin)
-						float pivotX = Float.parseFloat(image.getAttribute("pivot_x"));
-						float pivotY = Float.parseFloat(image.getAttribute("pivot_y"));
-						int width = Integer.parseInt(image.getAttribute("width"));
-						int height = Integer.parseInt(image.getAttribute("height"));
-						pivotX *= width;
-						pivotY *= height;
-						float centerX = pivotX + xOffset;
-						float centerY = pivotY + yOffset;
-						float x1= xOffset;
-						float y1 = yOffset;
-						float x2 = x1 + width;
-						float y2 = y1 + width;
-						Point2D.Float p1 = new Point2D.Float(x1, y1);
-						Point2D.Float p2 = new Point2D.Float(x2, y1);
-						Point2D.Float p3 = new Point2D.Float(x2, y2);
-						Point2D.Float p4 = new Point2D.Float(x1, y2);
-						p1 = rotateAbout(centerX, centerY, (float) angleRadians, p1, scaleX, scaleY);
-						p2 = rotateAbout(centerX, centerY, (float) angleRadians, p2, scaleX, scaleY);
-						p3 = rotateAbout(centerX, centerY, (float) angleRadians, p3, scaleX, scaleY);
-						p4 = rotateAbout(centerX, centerY, (float) angleRadians, p4, scaleX, scaleY);
-						minX = Math.min(minX, p1.x);
-						minX = Math.min(minX, p2.x);
-						minX = Math.min(minX, p3.x);
-						minX = Math.min(minX, p4.x);
-						minY = Math.min(minY, p1.y);
-						minY = Math.min(minY, p2.y);
-						minY = Math.min(minY, p3.y);
-						minY = Math.min(minY, p4.y);
-						ANIMFrame.elementsList.add(element);
-						elementCount++;
 					} catch (NumberFormatException e) {
-						Utilities.PrintDebug("found invalid file reference - skipping");
+						Trace.PACKER.debug("found invalid file reference - skipping").emit();
+						continue;
 					}
+					if ((flags & ScmlProject.BAD_NUMBER) != 0) {
+						Trace.PACKER.debug("found invalid file reference - skipping").emit();
+						continue;
+					}
+					// layer doesn't seem to actually be used for anything after it is parsed as a "folder"
+					// but it does need to have an associated string in the hash table so we will just
+					// write layer as the same as the image being used
+					element.layer = element.image;
+					// spriter animation files don't repeat data if it is unchanged between frames
+					// for an object so we have to track the last know value of the data and use
+					// that if we don't see it
+					AnimationData last = lastDataMap.get(timelineId);
+					float scaleX = 1.0f;
+					if ((flags & ScmlProject.HAS_SCALE_X) != 0) {
+						scaleX = scml.scaleX[timelineFrame];
+					} else if (last != null) {
+						scaleX = last.scaleX;
+					}
+					float scaleY = 1.0f;
+					if ((flags & ScmlProject.HAS_SCALE_Y) != 0) {
+						scaleY = scml.scaleY[timelineFrame];
+					} else if (last != null) {
+						scaleY = last.scaleY;
+					}
+					float angle = 0.0f;
+					if ((flags & ScmlProject.HAS_ANGLE) != 0) {
+						angle = scml.angle[timelineFrame];
+					} else if (last != null) {
+						angle = last.angle;
+					}
+					float xOffset = 0.0f;
+					if ((flags & ScmlProject.HAS_X) != 0) {
+						xOffset = scml.x[timelineFrame];
+					} else if (last != null) {
+						xOffset = last.x;
+					}
+					float yOffset = 0.0f;
+					if ((flags & ScmlProject.HAS_Y) != 0) {
+						yOffset = scml.y[timelineFrame];
+					} else if (last != null) {
+						yOffset = last.y;
+					}
+					AnimationData data = new AnimationData();
+					data.scaleX = scaleX;
+					data.scaleY = scaleY;
+					data.angle = angle;
+					data.x = xOffset;
+					data.y = yOffset;
+					lastDataMap.put(timelineId, data);
+					if (Float.isNaN(scml.pivotX[image]) || Float.isNaN(scml.pivotY[image])
+							|| scml.width[image] == ScmlProject.INVALID || scml.height[image] == ScmlProject.INVALID) {
+						Trace.PACKER.debug("found invalid file reference - skipping").emit();
+						continue;
+					}
+					element.m5 = xOffset * 2;
+					element.m6 = -yOffset * 2;
+					double angleRadians = Math.toRadians(angle);
+					double sin = Math.sin(angleRadians);
+					double cos = Math.cos(angleRadians);
+					element.m1 = (float) (scaleX * cos);
+					element.m2 = (float) (scaleX * -sin);
+					element.m3 = (float) (scaleY * sin);
+					element.m4 = (float) (scaleY * cos);
+
+					// calculate transformed bounds of this element
+					// note that we actually need the pivot of the element in order to determine where the
+					// element is located b/c the pivot acts as 0,0 for the x and y offsets
+					// additionally it is necessary b/c rotation is done aroudn the pivot
+					// (mathematically compute this as rotation around the origin just composed with
+					// translating the pivot to and from the origin)
+					float pivotX = scml.pivotX[image];
+					float pivotY = scml.pivotY[image];
+					int width = scml.width[image];
+					int height = scml.height[image];
+					pivotX *= width;
+					pivotY *= height;
+					float centerX = pivotX + xOffset;
+					float centerY = pivotY + yOffset;
+					float x1= xOffset;
+					float y1 = yOffset;
+					float x2 = x1 + width;
+					float y2 = y1 + width;
+					Point2D.Float p1 = new Point2D.Float(x1, y1);
+					Point2D.Float p2 = new Point2D.Float(x2, y1);
+					Point2D.Float p3 = new Point2D.Float(x2, y2);
+					Point2D.Float p4 = new Point2D.Float(x1, y2);
+					p1 = rotateAbout(centerX, centerY, (float) angleRadians, p1, scaleX, scaleY);
+					p2 = rotateAbout(centerX, centerY, (float) angleRadians, p2, scaleX, scaleY);
+					p3 = rotateAbout(centerX, centerY, (float) angleRadians, p3, scaleX, scaleY);
+					p4 = rotateAbout(centerX, centerY, (float) angleRadians, p4, scaleX, scaleY);
+					minX = Math.min(minX, p1.x);
+					minX = Math.min(minX, p2.x);
+					minX = Math.min(minX, p3.x);
+					minX = Math.min(minX, p4.x);
+					minY = Math.min(minY, p1.y);
+					minY = Math.min(minY, p2.y);
+					minY = Math.min(minY, p3.y);
+					minY = Math.min(minY, p4.y);
+					bank.columns.add(element);
 				}
 
-				Collections.sort(ANIMFrame.elementsList, Comparator.comparing(e -> -e.zIndex));
+				bank.columns.sortFrameByZIndex(frameIndex);
 
-				ANIMFrame.x = 0.5f * (minX + maxX);
-				ANIMFrame.y = 0.5f * (minY + maxY);
-				ANIMFrame.w = maxX - minX;
-				ANIMFrame.h = maxY - minY;
-				ANIMFrame.elements = elementCount;
-				bank.framesList.add(ANIMFrame);
+				bank.columns.x[frameIndex] = 0.5f * (minX + maxX);
+				bank.columns.y[frameIndex] = 0.5f * (minY + maxY);
+				bank.columns.w[frameIndex] = maxX - minX;
+				bank.columns.h[frameIndex] = maxY - minY;
 			}
 
 			bank.frames = frameCount;
 			ANIMData.animList.add(bank);
 		}
-		ANIMData.anims = animCount;
-
-		DataOutputStream out = new DataOutputStream(
-				new FileOutputStream(outputPath.resolve(name + "_anim.bytes").toFile()));
-
-		writeString(out, "ANIM", false);
-		// simply read through built ANIM data structure and write out the properties
-		writeInt(out, ANIMData.version);
-		writeInt(out, ANIMData.elements);
-		writeInt(out, ANIMData.frames);
-		writeInt(out, ANIMData.anims);
-		for (ANIMBank bank : ANIMData.animList) {
-			writeString(out, bank.name);
-			writeInt(out, bank.hash);
-			writeFloat(out, bank.rate);
-			writeInt(out, bank.frames);
-			for (ANIMFrame frame : bank.framesList) {
-				writeFloat(out, frame.x);
-				writeFloat(out, frame.y);
-				writeFloat(out, frame.w);
-				writeFloat(out, frame.h);
-				writeInt(out, frame.elements);
-				for (ANIMElement element : frame.elementsList) {
-					writeInt(out, element.image);
-					writeInt(out, element.index);
-					writeInt(out, element.layer);
-					writeInt(out, element.flags);
-					writeFloat(out, element.a);
-					writeFloat(out, element.b);
-					writeFloat(out, element.g);
-					writeFloat(out, element.r);
-					writeFloat(out, element.m1);
-					writeFloat(out, element.m2);
-					writeFloat(out, element.m3);
-					writeFloat(out, element.m4);
-					writeFloat(out, element.m5);
-					writeFloat(out, element.m6);
-					writeFloat(out, element.order);
-				}
-			}
-		}
-		writeInt(out, ANIMData.maxVisSymbolFrames);
-
-		writeInt(out, hashTable.entrySet().size());
-		for (Map.Entry<String, Integer> hashPair : hashTable.entrySet()) {
-			Utilities.PrintDebug(hashPair.getValue()+"="+hashPair.getKey());
-			writeInt(out, hashPair.getValue());
-			writeString(out, hashPair.getKey());
-		}
-		out.close();
+		ANIMData.anims = scml.animations;
+		return ANIMData;
 	}
 
 	public static Path getOutputPath() {
 		return Path.of("").resolve(Main.settings.OUTPUT_DIR).toAbsolutePath();
 	}
 	
-	public static void convert(Path scmlpath) throws IOException, SAXException, ParserConfigurationException {
+	public static void convert(Path scmlpath) throws IOException, XMLStreamException {
 		var scml = ScmlConverter.loadSCML(scmlpath.toString());
 		ScmlConverter converter = new ScmlConverter(scml);
 		var inputPath = scmlpath.getParent();
@@ -871,12 +620,11 @@ public class ScmlConverter {
 		}
 
 		Utilities.PrintInfo("Packing texture...");
-		converter.packBILD(inputPath, outputPath);
+		// the sprites are packed once and the packed regions are used for both files
+		SpriteSheet sheet = converter.packTexture(inputPath, outputPath);
+		converter.packBILD(sheet, outputPath);
 		Utilities.PrintInfo("Packing animation...");
-
-		// path of the output .atlas file
-		var atlasPath = outputPath.resolve(converter.nameOfEntity() + ".atlas");
-		converter.packANIM(atlasPath, outputPath);
+		converter.packANIM(sheet, outputPath);
 
 		Utilities.PrintInfo("Done.");
 	}
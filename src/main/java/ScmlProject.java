@@ -0,0 +1,387 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/*
+ * the parts of an scml file that packing needs, read in one pass with an XMLStreamReader
+ * into flat arrays, so packing never walks a DOM or parses an attribute twice
+ *
+ * the ranges of each level are indexed like ANIMColumns: animation a has mainline keys mainlineStart[a]
+ * until mainlineStart[a + 1], mainline key k has object_refs refStart[k] until refStart[k + 1] and so on
+ *
+ * it reads the same things ScmlConverter used to look up in the DOM: the children of the first folder,
+ * and the animations of the first entity with their first mainline and their timelines
+ * problems are recorded instead of thrown so that packing the build still works when only the anim can't be packed
+ */
+public class ScmlProject {
+
+	// an int attribute that is missing or not a number
+	public static final int INVALID = Integer.MIN_VALUE;
+
+	// flags of timeline keys, HAS_ANGLE to HAS_Y say which transform attributes the key's object has
+	public static final int HAS_ANGLE = 1;
+	public static final int HAS_SCALE_X = 1 << 1;
+	public static final int HAS_SCALE_Y = 1 << 2;
+	public static final int HAS_X = 1 << 3;
+	public static final int HAS_Y = 1 << 4;
+	// one of the transform attributes is there but isn't a number
+	public static final int BAD_NUMBER = 1 << 5;
+	// a child of the timeline that isn't a key
+	public static final int NOT_KEY = 1 << 6;
+	// the key has no object
+	public static final int NO_OBJECT = 1 << 7;
+
+	private static final int DEFAULT_INTERVAL = 33;
+
+	// name of the first entity, "" if it has no name and null if there is no entity
+	public String entityName;
+
+	// the children of the first folder, names are "" and numbers INVALID (NaN for pivots) when missing or not numbers
+	public boolean hasFolder;
+	public int files;
+	public String[] fileName = new String[16];
+	public int[] fileId = new int[16];
+	public float[] pivotX = new float[16], pivotY = new float[16];
+	public int[] width = new int[16], height = new int[16];
+
+	// the animations of the first entity
+	public int animations;
+	public String[] animName = new String[16];
+	// ms per frame
+	public int[] interval = new int[16];
+	public int[] mainlineStart = new int[17];
+	public int[] timelineStart = new int[17];
+
+	// keys of the mainlines and the number of child nodes each has, counted the way the DOM did (text runs included)
+	public int keys;
+	public int[] refStart = new int[65];
+	public int[] childNodes = new int[64];
+
+	// object_refs of the mainline keys
+	public int refs;
+	public int[] refTimeline = new int[64], refKey = new int[64], refZIndex = new int[64];
+
+	// timelines and their keys
+	public int timelines;
+	public int[] timelineId = new int[16];
+	public int[] timelineKeyStart = new int[17];
+
+	public int timelineKeys;
+	// id of the key, or INVALID, which stops a lookup the way a parse error used to
+	public int[] keyId = new int[64];
+	// the file of the key's object, INVALID if it isn't a number
+	public int[] keyFile = new int[64];
+	public float[] angle = new float[64], scaleX = new float[64], scaleY = new float[64], x = new float[64], y = new float[64];
+	public int[] keyFlags = new int[64];
+	// (timeline, key id) -> timeline key, see findKey
+	private final LongIntMap keyIndex = new LongIntMap();
+
+	// the first reason the animations can't be packed, null if they can
+	public String animationError;
+
+	public static ScmlProject load(Path path) throws IOException, XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		ScmlProject project = new ScmlProject();
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+			XMLStreamReader xml = factory.createXMLStreamReader(in);
+			try {
+				while (xml.hasNext()) {
+					if (xml.next() != XMLStreamConstants.START_ELEMENT) continue;
+					String tag = xml.getLocalName();
+					if (tag.equals("folder") && !project.hasFolder) {
+						project.readFolder(xml);
+					} else if (tag.equals("entity") && project.entityName == null) {
+						project.readEntity(xml);
+					}
+				}
+			} finally {
+				xml.close();
+			}
+		}
+		Trace.PACKER.debug("scml").with("files", project.files).with("animations", project.animations)
+				.with("keys", project.keys).with("timelines", project.timelines).with("timelineKeys", project.timelineKeys).emit();
+		return project;
+	}
+
+	private void readFolder(XMLStreamReader xml) throws XMLStreamException {
+		hasFolder = true;
+		while (nextChild(xml)) {
+			if (files == fileName.length) {
+				int capacity = files * 2;
+				fileName = Arrays.copyOf(fileName, capacity);
+				fileId = Arrays.copyOf(fileId, capacity);
+				pivotX = Arrays.copyOf(pivotX, capacity);
+				pivotY = Arrays.copyOf(pivotY, capacity);
+				width = Arrays.copyOf(width, capacity);
+				height = Arrays.copyOf(height, capacity);
+			}
+			if (!xml.getLocalName().equals("file")) {
+				fail("SCML format exception - all children of folder must be file tags");
+			}
+			String name = xml.getAttributeValue(null, "name");
+			fileName[files] = name == null ? "" : name;
+			fileId[files] = parseInt(xml.getAttributeValue(null, "id"));
+			if (fileId[files] == INVALID) {
+				fail(String.format("SCML format exception - the file \"%s\" has no valid id", fileName[files]));
+			}
+			pivotX[files] = parseFloat(xml.getAttributeValue(null, "pivot_x"));
+			pivotY[files] = parseFloat(xml.getAttributeValue(null, "pivot_y"));
+			width[files] = parseInt(xml.getAttributeValue(null, "width"));
+			height[files] = parseInt(xml.getAttributeValue(null, "height"));
+			files++;
+			skipElement(xml);
+		}
+	}
+
+	private void readEntity(XMLStreamReader xml) throws XMLStreamException {
+		String name = xml.getAttributeValue(null, "name");
+		entityName = name == null ? "" : name;
+		while (nextChild(xml)) {
+			if (!xml.getLocalName().equals("animation")) {
+				fail("SCML format exception - all children of entity must be animation tags");
+				skipElement(xml);
+				continue;
+			}
+			readAnimation(xml);
+		}
+	}
+
+	private void readAnimation(XMLStreamReader xml) throws XMLStreamException {
+		if (animations == animName.length) {
+			int capacity = animations * 2;
+			animName = Arrays.copyOf(animName, capacity);
+			interval = Arrays.copyOf(interval, capacity);
+			mainlineStart = Arrays.copyOf(mainlineStart, capacity + 1);
+			timelineStart = Arrays.copyOf(timelineStart, capacity + 1);
+		}
+		String name = xml.getAttributeValue(null, "name");
+		animName[animations] = name == null ? "" : name;
+		int ms = parseInt(xml.getAttributeValue(null, "interval"));
+		interval[animations] = ms == INVALID ? DEFAULT_INTERVAL : ms;
+
+		boolean hasMainline = false;
+		while (nextChild(xml)) {
+			String tag = xml.getLocalName();
+			if (tag.equals("mainline") && !hasMainline) {
+				hasMainline = true;
+				readMainline(xml);
+			} else if (tag.equals("timeline")) {
+				readTimeline(xml);
+			} else {
+				skipElement(xml);
+			}
+		}
+		if (!hasMainline) {
+			fail("SCML format exception - no mainline tag child of animation");
+		}
+		animations++;
+		mainlineStart[animations] = keys;
+		timelineStart[animations] = timelines;
+	}
+
+	private void readMainline(XMLStreamReader xml) throws XMLStreamException {
+		while (nextChild(xml)) {
+			if (!xml.getLocalName().equals("key")) {
+				fail("SCML format exception - all children of animation must be key tags");
+				skipElement(xml);
+				continue;
+			}
+			if (keys == childNodes.length) {
+				childNodes = Arrays.copyOf(childNodes, keys * 2);
+				refStart = Arrays.copyOf(refStart, keys * 2 + 1);
+			}
+			// the DOM made one node per child element, comment or cdata section and one per run of text between them
+			int nodes = 0;
+			boolean inText = false;
+			for (int event = xml.next(); event != XMLStreamConstants.END_ELEMENT; event = xml.next()) {
+				if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+					if (!inText) nodes++;
+					inText = true;
+					continue;
+				}
+				if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.CDATA
+						|| event == XMLStreamConstants.COMMENT || event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+					nodes++;
+				}
+				inText = false;
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (xml.getLocalName().equals("object_ref")) {
+						addRef(xml);
+					} else {
+						fail("SCML format exception - all chilredn of key must be object_ref tags");
+					}
+					skipElement(xml);
+				}
+			}
+			childNodes[keys] = nodes;
+			keys++;
+			refStart[keys] = refs;
+		}
+	}
+
+	private void addRef(XMLStreamReader xml) {
+		if (refs == refTimeline.length) {
+			int capacity = refs * 2;
+			refTimeline = Arrays.copyOf(refTimeline, capacity);
+			refKey = Arrays.copyOf(refKey, capacity);
+			refZIndex = Arrays.copyOf(refZIndex, capacity);
+		}
+		refTimeline[refs] = parseInt(xml.getAttributeValue(null, "timeline"));
+		refKey[refs] = parseInt(xml.getAttributeValue(null, "key"));
+		refZIndex[refs] = parseInt(xml.getAttributeValue(null, "z_index"));
+		if (refTimeline[refs] == INVALID || refKey[refs] == INVALID || refZIndex[refs] == INVALID) {
+			fail("SCML format exception - the timeline, key and z_index of an object_ref must be numbers");
+		}
+		refs++;
+	}
+
+	private void readTimeline(XMLStreamReader xml) throws XMLStreamException {
+		if (timelines == timelineId.length) {
+			timelineId = Arrays.copyOf(timelineId, timelines * 2);
+			timelineKeyStart = Arrays.copyOf(timelineKeyStart, timelines * 2 + 1);
+		}
+		timelineId[timelines] = parseInt(xml.getAttributeValue(null, "id"));
+		if (timelineId[timelines] == INVALID) {
+			fail("SCML format exception - the id of a timeline must be a number");
+		}
+		while (nextChild(xml)) {
+			if (timelineKeys == keyId.length) {
+				int capacity = timelineKeys * 2;
+				keyId = Arrays.copyOf(keyId, capacity);
+				keyFile = Arrays.copyOf(keyFile, capacity);
+				angle = Arrays.copyOf(angle, capacity);
+				scaleX = Arrays.copyOf(scaleX, capacity);
+				scaleY = Arrays.copyOf(scaleY, capacity);
+				x = Arrays.copyOf(x, capacity);
+				y = Arrays.copyOf(y, capacity);
+				keyFlags = Arrays.copyOf(keyFlags, capacity);
+			}
+			int key = timelineKeys++;
+			keyFlags[key] = 0;
+			if (!xml.getLocalName().equals("key")) {
+				keyId[key] = INVALID;
+				keyFlags[key] = NOT_KEY;
+				skipElement(xml);
+				continue;
+			}
+			keyId[key] = parseInt(xml.getAttributeValue(null, "id"));
+			keyFlags[key] = NO_OBJECT;
+			// the first object anywhere in the key
+			int depth = 1;
+			while (depth > 0) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					if ((keyFlags[key] & NO_OBJECT) != 0 && xml.getLocalName().equals("object")) {
+						readObject(xml, key);
+					}
+				}
+			}
+		}
+		indexKeys(timelines);
+		timelines++;
+		timelineKeyStart[timelines] = timelineKeys;
+	}
+
+	/*
+	 * indexes the timeline's keys by id up to the first one that can't be read, since looking a key up
+	 * used to mean scanning the timeline and failing at the first key it couldn't read
+	 * the first key with an id wins, like the scan
+	 */
+	private void indexKeys(int timeline) {
+		for (int key = timelineKeyStart[timeline]; key < timelineKeys; key++) {
+			if ((keyFlags[key] & NOT_KEY) != 0 || keyId[key] == INVALID) break;
+			long slot = slotOf(timeline, keyId[key]);
+			if (keyIndex.get(slot) == LongIntMap.EMPTY) {
+				keyIndex.put(slot, key);
+			}
+		}
+	}
+
+	// returns the key of the timeline with the id, or -1 if there is none
+	public int findKey(int timeline, int id) {
+		return keyIndex.get(slotOf(timeline, id));
+	}
+
+	private static long slotOf(int timeline, int id) {
+		return ((long) timeline << 32) | (id & 0xffffffffL);
+	}
+
+	private void readObject(XMLStreamReader xml, int key) {
+		keyFile[key] = parseInt(xml.getAttributeValue(null, "file"));
+		keyFlags[key] = readTransform(xml, "angle", angle, key, HAS_ANGLE)
+				| readTransform(xml, "scale_x", scaleX, key, HAS_SCALE_X)
+				| readTransform(xml, "scale_y", scaleY, key, HAS_SCALE_Y)
+				| readTransform(xml, "x", x, key, HAS_X)
+				| readTransform(xml, "y", y, key, HAS_Y);
+	}
+
+	// returns the flag to set for the attribute
+	private static int readTransform(XMLStreamReader xml, String name, float[] values, int key, int has) {
+		String value = xml.getAttributeValue(null, name);
+		if (value == null) return 0;
+		try {
+			values[key] = Float.parseFloat(value);
+			return has;
+		} catch (NumberFormatException e) {
+			return BAD_NUMBER;
+		}
+	}
+
+	private static float parseFloat(String value) {
+		if (value == null) return Float.NaN;
+		try {
+			return Float.parseFloat(value);
+		} catch (NumberFormatException e) {
+			return Float.NaN;
+		}
+	}
+
+	private static int parseInt(String value) {
+		if (value == null) return INVALID;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return INVALID;
+		}
+	}
+
+	private void fail(String message) {
+		if (animationError == null) {
+			animationError = message;
+		}
+	}
+
+	// moves to the next child element of the current element, returns false at the end of the current element
+	private static boolean nextChild(XMLStreamReader xml) throws XMLStreamException {
+		while (true) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) return true;
+			if (event == XMLStreamConstants.END_ELEMENT) return false;
+		}
+	}
+
+	// moves to the end of the element that was just started
+	private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,384 @@
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.tools.texturepacker.ColorBleedEffect;
+import com.badlogic.gdx.tools.texturepacker.ImageProcessor;
+import com.badlogic.gdx.tools.texturepacker.MaxRectsPacker;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker;
+import com.badlogic.gdx.utils.Array;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+
+/*
+ * packs the sprites of an scml project into one texture in memory and writes it as a png
+ *
+ * this is what TexturePacker.process did for the project directory, with the same settings, order and pixels,
+ * but the packed regions are kept as atlas entries instead of being written to an .atlas file and read back
+ * the entries are in the order the .atlas file listed them, sorted by name and index with aliases
+ * (sprites with the same pixels as another) right after the sprite they share pixels with
+ *
+ * only the pngs directly in the directory are packed, and a pack.json there isn't read
+ *
+ * the pngs are read and decoded on a pool of threads and handed to the packer in its order as they are ready,
+ * their names are checked for the _N frame suffix while they are listed so a bad name fails before anything is decoded
+ * every decoded sprite is kept until the texture is drawn instead of being decoded a second time for it
+ * with a pack cache (--pack-cache) sprites that didn't change since the last run aren't packed again, see pack
+ */
+public class SpriteSheet {
+
+	public int width, height;
+	public List<AtlasEntry> entries;
+	// the pngs that were packed, and how many of them are frame 0 of their symbol
+	public int sprites, firstFrames;
+
+	private static final Pattern DIGIT_SUFFIX = Pattern.compile("(.*?)(\\d+)$");
+
+	private static TexturePacker.Settings settings() {
+		TexturePacker.Settings settings = new TexturePacker.Settings();
+		settings.silent = true;
+		settings.square = true;
+		return settings;
+	}
+
+	// the settings that change where the sprites go or what the png looks like, the pack cache is only used with the same ones
+	private static String fingerprint(TexturePacker.Settings settings) {
+		return String.format("padding=%d,%d edgePadding=%b pot=%b square=%b min=%d,%d max=%d,%d bleed=%b premultiplyAlpha=%b alias=%b rotation=%b strip=%b,%b scale=%s",
+				settings.paddingX, settings.paddingY, settings.edgePadding, settings.pot, settings.square, settings.minWidth, settings.minHeight,
+				settings.maxWidth, settings.maxHeight, settings.bleed, settings.premultiplyAlpha, settings.alias, settings.rotation,
+				settings.stripWhitespaceX, settings.stripWhitespaceY, settings.scale[0]);
+	}
+
+	/*
+	 * the pack cache can be null, with one the png and regions of the last run are used as they are if no sprite, setting or the png changed since,
+	 * and if sprites only changed their pixels but not their size or which sprites have the same pixels, the packer would put
+	 * every sprite where it was so it isn't run, the png is drawn again with the regions of the last run
+	 * the png is always the same as without a cache
+	 */
+	public static SpriteSheet pack(Path inputPath, Path imagePath, int threads, Path cachePath) throws IOException {
+		TexturePacker.Settings settings = settings();
+		List<File> files = spriteFiles(inputPath, imagePath);
+		int firstFrames = 0;
+		for (File file : files) {
+			if (frame(file) == 0) firstFrames++;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1));
+		try {
+			List<byte[]> pngs = all(pool, files.size(), i -> read(files.get(i)));
+			PackCache cache = cachePath == null ? null : PackCache.load(cachePath);
+			String inputs = inputsHash(settings, files, pngs, pool);
+			SpriteSheet sheet;
+			if (cache != null && cache.inputs.equals(inputs) && cache.image.equals(PackCache.hashOf(imagePath))) {
+				Utilities.PrintInfo("No sprite changed since the last run, reusing its texture.");
+				sheet = sheet(cache.width, cache.height, cache.entries);
+			} else {
+				ImageProcessor processor = new ImageProcessor(inputPath.toFile(), settings);
+				processor.setScale(settings.scale[0]);
+				List<BufferedImage> images = all(pool, files.size(), i -> decode(files.get(i), pngs.get(i)));
+				for (int i = 0; i < files.size(); i++) {
+					processor.addImage(images.get(i), baseName(files.get(i)));
+				}
+				String layout = layoutHash(settings, processor.getImages());
+				BufferedImage canvas = null;
+				if (cache != null && cache.layout.equals(layout)) {
+					canvas = redraw(processor, cache, settings);
+				}
+				if (canvas != null) {
+					Utilities.PrintInfo("The sprites kept their sizes since the last run, drawing them where they were without packing.");
+					sheet = sheet(cache.width, cache.height, cache.entries);
+				} else {
+					TexturePacker.Page page = pack(inputPath, processor, settings);
+					sheet = sheet(page.imageWidth, page.imageHeight, entries(page, settings));
+					canvas = draw(page, processor, settings);
+				}
+				cache = new PackCache();
+				cache.inputs = inputs;
+				cache.layout = layout;
+				cache.image = write(canvas, imagePath);
+				cache.width = sheet.width;
+				cache.height = sheet.height;
+				cache.entries = sheet.entries;
+			}
+			sheet.sprites = files.size();
+			sheet.firstFrames = firstFrames;
+			if (cachePath != null) {
+				cache.save(cachePath);
+			}
+			return sheet;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// the page the packer puts every sprite on, with the size of its png
+	private static TexturePacker.Page pack(Path inputPath, ImageProcessor processor, TexturePacker.Settings settings) {
+		Array<TexturePacker.Page> pages = new MaxRectsPacker(settings).pack(processor.getImages());
+		if (pages.size == 0) {
+			throw new RuntimeException(String.format("There are no sprites to pack in %s.", inputPath));
+		}
+		if (pages.size > 1) {
+			throw new RuntimeException(String.format("The sprites don't fit into one %dx%d texture.", settings.maxWidth, settings.maxHeight));
+		}
+		TexturePacker.Page page = pages.first();
+		size(page, settings);
+		return page;
+	}
+
+	// the regions of the page by name and index, each followed by its aliases
+	private static List<AtlasEntry> entries(TexturePacker.Page page, TexturePacker.Settings settings) {
+		List<AtlasEntry> entries = new ArrayList<>();
+		page.outputRects.sort();
+		for (TexturePacker.Rect rect : page.outputRects) {
+			entries.add(entry(page, rect, null, settings));
+			Array<TexturePacker.Alias> aliases = new Array<>(rect.aliases.toArray(new TexturePacker.Alias[0]));
+			aliases.sort();
+			for (TexturePacker.Alias alias : aliases) {
+				entries.add(entry(page, rect, alias, settings));
+			}
+		}
+		return entries;
+	}
+
+	private static SpriteSheet sheet(int width, int height, List<AtlasEntry> entries) {
+		SpriteSheet sheet = new SpriteSheet();
+		sheet.width = width;
+		sheet.height = height;
+		sheet.entries = entries;
+		return sheet;
+	}
+
+	// the hash of the settings and the name and bytes of every sprite, the bytes are hashed on the pool
+	private static String inputsHash(TexturePacker.Settings settings, List<File> files, List<byte[]> pngs, ExecutorService pool) throws IOException {
+		List<byte[]> hashes = all(pool, pngs.size(), i -> PackCache.sha256().digest(pngs.get(i)));
+		MessageDigest digest = PackCache.sha256();
+		digest.update(fingerprint(settings).getBytes(StandardCharsets.UTF_8));
+		for (int i = 0; i < files.size(); i++) {
+			digest.update(("\n" + files.get(i).getName() + "\t").getBytes(StandardCharsets.UTF_8));
+			digest.update(hashes.get(i));
+		}
+		return PackCache.hex(digest.digest());
+	}
+
+	// the hash of the settings and of everything about the sprites the packer places them by, which is all but their pixels
+	private static String layoutHash(TexturePacker.Settings settings, Array<TexturePacker.Rect> rects) {
+		StringBuilder layout = new StringBuilder(fingerprint(settings));
+		for (TexturePacker.Rect rect : rects) {
+			layout.append(String.format("\n%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d", rect.name, rect.index, rect.width, rect.height,
+					rect.regionWidth, rect.regionHeight, rect.offsetX, rect.offsetY, rect.originalWidth, rect.originalHeight));
+			Array<TexturePacker.Alias> aliases = new Array<>(rect.aliases.toArray(new TexturePacker.Alias[0]));
+			aliases.sort();
+			for (TexturePacker.Alias alias : aliases) {
+				layout.append(String.format("\t%s\t%d\t%d\t%d\t%d\t%d", alias.name, alias.index,
+						alias.offsetX, alias.offsetY, alias.originalWidth, alias.originalHeight));
+			}
+		}
+		return PackCache.hex(PackCache.sha256().digest(layout.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private interface Task<R> {
+		R run(int i) throws IOException;
+	}
+
+	// runs the task for 0 to count - 1 on the pool, the results are in that order
+	private static <R> List<R> all(ExecutorService pool, int count, Task<R> task) throws IOException {
+		try {
+			List<Future<R>> futures = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				int item = i;
+				futures.add(pool.submit(() -> task.run(item)));
+			}
+			List<R> results = new ArrayList<>(count);
+			for (Future<R> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading sprites", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		try {
+			return Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new IOException(String.format("Could not read the sprite %s.", file.getName()), e);
+		}
+	}
+
+	private static BufferedImage decode(File file, byte[] png) throws IOException {
+		BufferedImage image;
+		try {
+			image = ImageIO.read(new ByteArrayInputStream(png));
+		} catch (IOException e) {
+			throw new IOException(String.format("Could not read the sprite %s.", file.getName()), e);
+		}
+		if (image == null) {
+			throw new IOException(String.format("The sprite %s could not be decoded.", file.getName()));
+		}
+		return image;
+	}
+
+	// writes the png and returns its hash
+	private static String write(BufferedImage canvas, Path imagePath) throws IOException {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(canvas, "png", png);
+		byte[] bytes = png.toByteArray();
+		Files.write(imagePath, bytes);
+		return PackCache.hex(PackCache.sha256().digest(bytes));
+	}
+
+	// the frame number after the last _ of the name
+	private static int frame(File file) {
+		String name = baseName(file);
+		try {
+			int underscore = name.lastIndexOf('_');
+			if (underscore < 0) throw new NumberFormatException();
+			return Integer.parseInt(name.substring(underscore + 1));
+		} catch (NumberFormatException e) {
+			throw new RuntimeException(String.format("Improperly formatted texture name %s. Filenames should end in _[number], e.g. body_0.png.", file.getName()));
+		}
+	}
+
+	// the pngs in the directory in the order the texture packer added them, by name and then by number suffix
+	private static List<File> spriteFiles(Path inputPath, Path imagePath) {
+		File[] children = inputPath.toFile().listFiles();
+		List<File> files = new ArrayList<>();
+		if (children == null) return files;
+		for (File child : children) {
+			if (child.isFile() && child.getName().endsWith(".png") && !child.toPath().equals(imagePath)) {
+				files.add(child);
+			}
+		}
+		files.sort(Comparator.comparing(SpriteSheet::prefix).thenComparingInt(SpriteSheet::number));
+		return files;
+	}
+
+	private static String baseName(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot == -1 ? name : name.substring(0, dot);
+	}
+
+	private static String prefix(File file) {
+		Matcher matcher = DIGIT_SUFFIX.matcher(baseName(file));
+		if (matcher.matches()) {
+			try {
+				Integer.parseInt(matcher.group(2));
+				return matcher.group(1);
+			} catch (NumberFormatException e) {
+				// too many digits for an int, compared as a plain name
+			}
+		}
+		return baseName(file);
+	}
+
+	private static int number(File file) {
+		Matcher matcher = DIGIT_SUFFIX.matcher(baseName(file));
+		if (matcher.matches()) {
+			try {
+				return Integer.parseInt(matcher.group(2));
+			} catch (NumberFormatException e) {
+				// compared as a plain name
+			}
+		}
+		return 0;
+	}
+
+	// the size of the png for the page the way the texture packer did, which moves the page off the edge with edge padding
+	private static void size(TexturePacker.Page page, TexturePacker.Settings settings) {
+		int width = page.width - settings.paddingX;
+		int height = page.height - settings.paddingY;
+		if (settings.edgePadding) {
+			page.x = settings.paddingX;
+			page.y = settings.paddingY;
+			width += settings.paddingX * 2;
+			height += settings.paddingY * 2;
+		}
+		if (settings.pot) {
+			width = MathUtils.nextPowerOfTwo(width);
+			height = MathUtils.nextPowerOfTwo(height);
+		}
+		page.imageWidth = Math.max(settings.minWidth, width);
+		page.imageHeight = Math.max(settings.minHeight, height);
+	}
+
+	// copies the sprites into the page the way the texture packer did, without rotation or duplicate padding since those are off
+	private static BufferedImage draw(TexturePacker.Page page, ImageProcessor processor, TexturePacker.Settings settings) {
+		BufferedImage canvas = new BufferedImage(page.imageWidth, page.imageHeight, BufferedImage.TYPE_INT_ARGB);
+		for (TexturePacker.Rect rect : page.outputRects) {
+			copy(rect.getImage(processor), canvas, page.x + rect.x, page.y + page.height - rect.y - rect.height);
+		}
+		return bleed(canvas, settings);
+	}
+
+	// draws the sprites at the regions of the cache, or returns null if a sprite's region isn't clear from its name and index
+	private static BufferedImage redraw(ImageProcessor processor, PackCache cache, TexturePacker.Settings settings) {
+		Map<String, AtlasEntry> regions = new HashMap<>();
+		for (AtlasEntry entry : cache.entries) {
+			AtlasEntry other = regions.putIfAbsent(entry.name + "_" + entry.index, entry);
+			if (other != null && (other.x != entry.x || other.y != entry.y)) return null;
+		}
+		BufferedImage canvas = new BufferedImage(cache.width, cache.height, BufferedImage.TYPE_INT_ARGB);
+		for (TexturePacker.Rect rect : processor.getImages()) {
+			AtlasEntry entry = regions.get(TexturePacker.Rect.getAtlasName(rect.name, settings.flattenPaths) + "_" + rect.index);
+			if (entry == null) return null;
+			copy(rect.getImage(processor), canvas, entry.x, entry.y);
+		}
+		return bleed(canvas, settings);
+	}
+
+	private static void copy(BufferedImage image, BufferedImage canvas, int x, int y) {
+		int w = Math.min(image.getWidth(), canvas.getWidth() - x);
+		int h = Math.min(image.getHeight(), canvas.getHeight() - y);
+		if (w <= 0 || h <= 0) return;
+		int[] pixels = image.getRGB(0, 0, w, h, null, 0, w);
+		canvas.setRGB(x, y, w, h, pixels, 0, w);
+	}
+
+	private static BufferedImage bleed(BufferedImage canvas, TexturePacker.Settings settings) {
+		if (settings.bleed && !settings.premultiplyAlpha) {
+			return new ColorBleedEffect().processImage(canvas, 2);
+		}
+		return canvas;
+	}
+
+	// the fields the texture packer wrote for the rect, or for the alias of it if there is one
+	private static AtlasEntry entry(TexturePacker.Page page, TexturePacker.Rect rect, TexturePacker.Alias alias, TexturePacker.Settings settings) {
+		AtlasEntry entry = new AtlasEntry();
+		entry.name = TexturePacker.Rect.getAtlasName(alias == null ? rect.name : alias.name, settings.flattenPaths);
+		entry.rotate = rect.rotated;
+		entry.x = page.x + rect.x;
+		entry.y = page.y + page.height - rect.height - rect.y;
+		entry.w = rect.regionWidth;
+		entry.h = rect.regionHeight;
+		entry.originX = alias == null ? rect.originalWidth : alias.originalWidth;
+		entry.originY = alias == null ? rect.originalHeight : alias.originalHeight;
+		entry.offsetX = alias == null ? rect.offsetX : alias.offsetX;
+		entry.offsetY = entry.originY - rect.regionHeight - (alias == null ? rect.offsetY : alias.offsetY);
+		entry.index = alias == null ? rect.index : alias.index;
+		return entry;
+	}
+
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/*
+ * the KleiHashes of symbol and animation names, every name is hashed at most once per run
+ * no matter how many symbol tables it is interned into
+ *
+ * the hashes can be kept in a file between runs with --hash-cache, one "hash<tab>name" line per name
+ * after a "crc32<tab>checksum" line with the checksum of the lines, names in the file aren't hashed again
+ * so a file that was edited by hand or damaged, which no longer matches its checksum, is ignored as a whole
+ * thread safe
+ */
+public class SymbolHashes {
+
+	private static final Map<String, Integer> hashes = new ConcurrentHashMap<>();
+	private static volatile boolean changed = false;
+	private static final String CHECKSUM = "crc32";
+
+	public static int of(String name) {
+		if (name == null) {
+			return 0;
+		}
+		Integer hash = hashes.get(name);
+		if (hash == null) {
+			hash = SymbolTable.KleiHash(name);
+			if (hashes.putIfAbsent(name, hash) == null) {
+				changed = true;
+			}
+		}
+		return hash;
+	}
+
+	public static int size() {
+		return hashes.size();
+	}
+
+	// adds the hashes in the file, a missing file is an empty cache and a file that doesn't match its checksum is ignored
+	public static void load(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		byte[] bytes = Files.readAllBytes(path);
+		int start = 0;
+		while (start < bytes.length && bytes[start] != '\n') start++;
+		start = Math.min(start + 1, bytes.length);
+		String header = new String(bytes, 0, start, StandardCharsets.UTF_8).trim();
+		if (!header.equals(CHECKSUM + "\t" + checksum(bytes, start))) {
+			Utilities.PrintDebug(String.format("The hash cache %s doesn't match its checksum, its hashes are ignored.", path));
+			return;
+		}
+		String[] lines = new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8).split("\n");
+		for (int number = 0; number < lines.length; number++) {
+			String line = lines[number];
+			if (line.isEmpty()) continue;
+			int tab = line.indexOf('\t');
+			try {
+				hashes.put(line.substring(tab + 1), Integer.parseInt(line.substring(0, tab)));
+			} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+				throw new RuntimeException(String.format("Line %d of the hash cache %s is not a hash and a name.", number + 2, path));
+			}
+		}
+		Utilities.PrintDebug(String.format("Loaded %d symbol hashes from %s.", hashes.size(), path));
+	}
+
+	private static long checksum(byte[] bytes, int start) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, start, bytes.length - start);
+		return crc.getValue();
+	}
+
+	// writes every hash of the run to the file if any were added to it, replacing the file in one move
+	public static void save(Path path) throws IOException {
+		if (!changed) {
+			return;
+		}
+		List<String> names = new ArrayList<>(hashes.keySet());
+		Collections.sort(names);
+		StringBuilder lines = new StringBuilder();
+		for (String name : names) {
+			// a name with a line break would split its line, those are hashed again next time
+			if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) continue;
+			lines.append(hashes.get(name)).append('\t').append(name).append('\n');
+		}
+		byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temp)) {
+			out.write((CHECKSUM + "\t" + checksum(bytes, 0) + "\n").getBytes(StandardCharsets.UTF_8));
+			out.write(bytes);
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		changed = false;
+		Utilities.PrintDebug(String.format("Saved %d symbol hashes to %s.", names.size(), path));
+	}
+
+}
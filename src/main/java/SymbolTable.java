@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * interned symbol names shared by the reader, writer and packer
+ *
+ * every distinct name gets a dense id in the order it was first seen, and every KleiHash maps onto the id
+ * of the name it was last given for, the same as the HashMap<Integer, String> the files were read into before
+ * sprites ("name_index", e.g. "arm_2") are interned the same way from a symbol id and a frame index
+ * so code that handles elements can compare and index ints and only build the sprite's name once
+ *
+ * names are hashed through SymbolHashes so each one is only hashed once per run
+ * the hash and sprite lookups use open addressing on primitive keys (see LongIntMap) so they don't box
+ * not thread safe, fill it in before sharing it
+ */
+public class SymbolTable {
+
+	private static final int EMPTY = LongIntMap.EMPTY;
+
+	private String[] names = new String[16];
+	private int[] hashes = new int[16];
+	private int symbols = 0;
+	private final Map<String, Integer> ids = new HashMap<>();
+
+	private final LongIntMap byHash = new LongIntMap();
+
+	private int[] spriteSymbols = new int[16];
+	private int[] spriteIndexes = new int[16];
+	private String[] spriteNames = new String[16];
+	private int sprites = 0;
+	private final LongIntMap bySprite = new LongIntMap();
+
+	public static int KleiHash(String str) {
+		if (str == null) {
+			return 0;
+		}
+		String lower = str.toLowerCase();
+		int num = 0;
+		for (int i = 0; i < str.length(); i++) {
+			num = ((int) lower.charAt(i)) + (num << 6) + (num << 16) - num;
+		}
+		return num;
+	}
+
+	/*
+	 * records a hash table entry from a kanim file
+	 * returns the id of the name
+	 */
+	public int put(int hash, String name) {
+		int id = idOf(name);
+		int other = byHash.get(hash);
+		if (other != EMPTY && other != id) {
+			Utilities.PrintDebug(String.format("The symbols \"%s\" and \"%s\" have the same hash %d, it now names \"%s\".",
+					names[other], name, hash, name));
+		}
+		if (id == EMPTY) {
+			id = add(name, hash);
+		} else {
+			hashes[id] = hash;
+		}
+		byHash.put(hash, id);
+		return id;
+	}
+
+	/*
+	 * adds the name with its KleiHash if it isn't in the table yet, returns its id
+	 * throws if another name in the table has the same hash, since a file's hash table can only name each hash once
+	 * names that only differ in case always have the same hash and are one symbol to the game, the last one names it like put
+	 */
+	public int intern(String name) {
+		int id = idOf(name);
+		if (id != EMPTY) return id;
+		int hash = SymbolHashes.of(name);
+		int other = byHash.get(hash);
+		if (other != EMPTY && !names[other].toLowerCase().equals(name.toLowerCase())) {
+			throw new RuntimeException(String.format("The symbols \"%s\" and \"%s\" have the same hash %d. Rename one of them.",
+					names[other], name, hash));
+		}
+		return put(hash, name);
+	}
+
+	// returns the id of the name or -1
+	public int idOf(String name) {
+		Integer id = ids.get(name);
+		return id == null ? EMPTY : id;
+	}
+
+	// returns the id of the name the hash belongs to or -1
+	public int idOf(int hash) {
+		return byHash.get(hash);
+	}
+
+	// returns the name of the symbol or null for -1, so a missing hash reads as "null" like a missing map entry did
+	public String name(int id) {
+		return id == EMPTY ? null : names[id];
+	}
+
+	public String nameOf(int hash) {
+		return name(idOf(hash));
+	}
+
+	public int hash(int id) {
+		return hashes[id];
+	}
+
+	public int hashOf(String name) {
+		int id = idOf(name);
+		if (id == EMPTY) {
+			throw new RuntimeException(String.format("The symbol \"%s\" is not in the symbol table.", name));
+		}
+		return hashes[id];
+	}
+
+	// number of symbols, ids go from 0 to size() - 1
+	public int size() {
+		return symbols;
+	}
+
+	// returns the sprite id for the symbol's frame, adding it if needed, symbol may be -1 for an unknown hash
+	public int sprite(int symbol, int index) {
+		long key = ((long) symbol << 32) | (index & 0xffffffffL);
+		int sprite = bySprite.get(key);
+		if (sprite != EMPTY) return sprite;
+
+		if (sprites == spriteSymbols.length) {
+			spriteSymbols = Arrays.copyOf(spriteSymbols, sprites * 2);
+			spriteIndexes = Arrays.copyOf(spriteIndexes, sprites * 2);
+			spriteNames = Arrays.copyOf(spriteNames, sprites * 2);
+		}
+		int id = sprites++;
+		spriteSymbols[id] = symbol;
+		spriteIndexes[id] = index;
+		bySprite.put(key, id);
+		return id;
+	}
+
+	// number of sprites, ids go from 0 to spriteCount() - 1
+	public int spriteCount() {
+		return sprites;
+	}
+
+	public int spriteSymbol(int sprite) {
+		return spriteSymbols[sprite];
+	}
+
+	public int spriteIndex(int sprite) {
+		return spriteIndexes[sprite];
+	}
+
+	// "name_index", built the first time it's asked for
+	public String spriteName(int sprite) {
+		String name = spriteNames[sprite];
+		if (name == null) {
+			name = name(spriteSymbols[sprite]) + '_' + spriteIndexes[sprite];
+			spriteNames[sprite] = name;
+		}
+		return name;
+	}
+
+	private int add(String name, int hash) {
+		if (symbols == names.length) {
+			names = Arrays.copyOf(names, symbols * 2);
+			hashes = Arrays.copyOf(hashes, symbols * 2);
+		}
+		names[symbols] = name;
+		hashes[symbols] = hash;
+		ids.put(name, symbols);
+		return symbols++;
+	}
+
+}
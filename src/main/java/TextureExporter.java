@@ -0,0 +1,324 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/*
+ * cuts the sprites of a build out of its atlas and saves them as pngs
+ *
+ * sprites are cut out as the atlas is decoded (see Atlas) and encoded on a pool of worker threads
+ * while a single writer thread saves the results in table order, so the files end up exactly as if
+ * they were exported one by one
+ * at most 2 * threads cut out sprites are waiting to be encoded at a time
+ * and an encoded sprite is only kept until the last row that uses it is written
+ *
+ * rows that point at the same rectangle share one crop and encode, and sprites whose pixels
+ * are identical are only encoded once and then copied (or hard linked) to their other names
+ *
+ * the sprites can also be written as entries of a zip archive, in which case only the last row with
+ * each name is written since an entry can't be replaced the way a file is
+ */
+public class TextureExporter {
+
+	private final Atlas atlas;
+	private final PngEncoder encoder;
+	private final int threads;
+	private final boolean hardLink;
+
+	public int textures, encodes;
+
+	private static class Texture {
+		ByteBuffer content; // digest of the pixels
+		byte[] png;
+	}
+
+	public TextureExporter(Atlas atlas, PngEncoder encoder, int threads, boolean hardLink) {
+		this.atlas = atlas;
+		this.encoder = encoder;
+		this.threads = Math.max(threads, 1);
+		this.hardLink = hardLink;
+	}
+
+	public void export(List<BILDRow> rows, Path basePath) throws IOException {
+		export(rows, basePath, null);
+	}
+
+	// adds the sprites to the zip as they are encoded, the zip is left open
+	public void export(List<BILDRow> rows, ZipOutputStream zip) throws IOException {
+		export(rows, null, zip);
+	}
+
+	private void export(List<BILDRow> rows, Path basePath, ZipOutputStream zip) throws IOException {
+		ExecutorService encoders = Executors.newFixedThreadPool(threads);
+		ExecutorService writer = Executors.newSingleThreadExecutor();
+		Semaphore inFlight = new Semaphore(2 * threads);
+		List<Future<?>> writes = new ArrayList<>();
+		// every distinct rectangle is only cut out and encoded once
+		Map<Long, Integer> regionOf = new HashMap<>();
+		List<Rectangle> regions = new ArrayList<>();
+		List<Integer> regionOfRow = new ArrayList<>();
+		// rows of each region that aren't written yet, only touched by the writer thread once the writes are queued
+		List<Integer> remaining = new ArrayList<>();
+		// shared by the workers, a region's texture is dropped once its last row is written
+		AtomicReferenceArray<CompletableFuture<Texture>> byRegion;
+		Map<ByteBuffer, Future<Texture>> byContent = new HashMap<>();
+		AtomicInteger encodes = new AtomicInteger();
+		// set once a row fails, the rows after it are skipped instead of written
+		AtomicBoolean failed = new AtomicBoolean();
+		// only touched by the writer thread
+		Map<ByteBuffer, Path> written = new HashMap<>();
+		Map<Path, ByteBuffer> contentOf = new HashMap<>();
+		// the last row with each file name, which is the one that ends up in the directory
+		Map<String, BILDRow> lastWith = new HashMap<>();
+		if (zip != null) {
+			for (BILDRow row : rows) {
+				lastWith.put(fileName(row), row);
+			}
+		}
+		int exported = 0;
+		for (BILDRow row : rows) {
+			if (zip != null && lastWith.get(fileName(row)) != row) {
+				regionOfRow.add(null);
+				continue;
+			}
+			exported++;
+			Rectangle rectangle = rectangleOf(row);
+			Integer region = regionOf.get(key(rectangle));
+			if (region == null) {
+				region = regions.size();
+				regionOf.put(key(rectangle), region);
+				regions.add(rectangle);
+				remaining.add(0);
+			}
+			remaining.set(region, remaining.get(region) + 1);
+			regionOfRow.add(region);
+		}
+		byRegion = new AtomicReferenceArray<>(regions.size());
+		for (int region = 0; region < regions.size(); region++) {
+			byRegion.set(region, new CompletableFuture<>());
+		}
+		try {
+			for (int i = 0; i < rows.size(); i++) {
+				BILDRow row = rows.get(i);
+				Trace.EXPORT.trace("sprite").with("name", row.name).with("index", row.index)
+						.with("x", row.x1).with("y", row.h - row.y1).with("w", row.w).with("h", row.h).emit();
+				Integer region = regionOfRow.get(i);
+				if (region == null) continue;
+				String fileName = fileName(row);
+				Future<Texture> encoded = byRegion.get(region);
+				writes.add(writer.submit(() -> {
+					if (failed.get()) return null;
+					try {
+						Texture texture = encoded.get();
+						if (zip != null) {
+							zip.putNextEntry(new ZipEntry(fileName));
+							zip.write(texture.png);
+							zip.closeEntry();
+						} else {
+							save(texture, basePath.resolve(fileName), written, contentOf);
+						}
+						int left = remaining.get(region) - 1;
+						remaining.set(region, left);
+						if (left == 0) {
+							release(region, texture, byRegion, byContent);
+						}
+						return null;
+					} catch (Exception e) {
+						failed.set(true);
+						throw e;
+					}
+				}));
+			}
+
+			atlas.forEachRegion(regions, (region, image) -> {
+				inFlight.acquire();
+				encoders.submit(() -> {
+					try {
+						byRegion.get(region).complete(encode(image, byContent, encodes));
+					} catch (Exception e) {
+						byRegion.get(region).completeExceptionally(e);
+					} finally {
+						inFlight.release();
+					}
+				});
+			});
+
+			for (Future<?> write : writes) {
+				write.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while exporting textures", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			while (cause instanceof ExecutionException) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException(cause);
+		} finally {
+			// nothing is written once export is on its way out, and the writer is unblocked if cutting out the sprites failed part way
+			failed.set(true);
+			for (int region = 0; region < byRegion.length(); region++) {
+				CompletableFuture<Texture> texture = byRegion.get(region);
+				if (texture != null) texture.cancel(true);
+			}
+			// the writer may be in the middle of a row, the directory or zip is the caller's again only once it stops
+			stop(encoders);
+			stop(writer);
+		}
+
+		// rows left out of the zip for a later row with the same name don't count as reused duplicates
+		this.textures = exported;
+		this.encodes = encodes.get();
+		Utilities.PrintInfo(String.format("Exported %d textures with %d encodes (%d saved by reusing duplicates).",
+				this.textures, this.encodes, this.textures - this.encodes));
+	}
+
+	// interrupts the pool's threads and waits for them to finish whatever they are doing
+	private static void stop(ExecutorService pool) {
+		pool.shutdownNow();
+		boolean interrupted = false;
+		while (!pool.isTerminated()) {
+			try {
+				pool.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * drops the encoded png of a region whose rows are all written, so only the sprites that are still waiting
+	 * for their rows stay in memory instead of every sprite until the export ends
+	 * a sprite with the same pixels that is cut out after this is encoded again
+	 */
+	private static void release(int region, Texture texture, AtomicReferenceArray<CompletableFuture<Texture>> byRegion,
+			Map<ByteBuffer, Future<Texture>> byContent) throws Exception {
+		byRegion.set(region, null);
+		synchronized (byContent) {
+			Future<Texture> shared = byContent.get(texture.content);
+			if (shared != null && shared.isDone() && shared.get() == texture) {
+				byContent.remove(texture.content);
+			}
+		}
+	}
+
+	private static String fileName(BILDRow row) {
+		return row.name + '_' + row.index + ".png";
+	}
+
+	private Rectangle rectangleOf(BILDRow row) {
+		return new Rectangle((int) row.x1, (int) (atlas.height - row.y1), (int) row.w, (int) row.h);
+	}
+
+	// packs the rectangle into a long, atlases are far smaller than 65536 pixels a side
+	private static long key(Rectangle rectangle) {
+		return ((long) rectangle.x & 0xFFFF) << 48
+				| ((long) rectangle.y & 0xFFFF) << 32
+				| ((long) rectangle.width & 0xFFFF) << 16
+				| ((long) rectangle.height & 0xFFFF);
+	}
+
+	private Texture encode(BufferedImage texture, Map<ByteBuffer, Future<Texture>> byContent, AtomicInteger encodes) throws Exception {
+		ByteBuffer content = digest(texture);
+		CompletableFuture<Texture> mine = new CompletableFuture<>();
+		Future<Texture> existing;
+		synchronized (byContent) {
+			existing = byContent.putIfAbsent(content, mine);
+		}
+		if (existing != null) {
+			// another worker is already encoding the same pixels
+			return existing.get();
+		}
+		try {
+			Texture encoded = new Texture();
+			encoded.content = content;
+			encoded.png = encoder.encode(texture);
+			encodes.incrementAndGet();
+			mine.complete(encoded);
+			return encoded;
+		} catch (Exception e) {
+			mine.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private static ByteBuffer digest(BufferedImage texture) {
+		int w = texture.getWidth();
+		int h = texture.getHeight();
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		int[] line = new int[w];
+		ByteBuffer bytes = ByteBuffer.allocate(Math.max(w, 2) * 4);
+		bytes.putInt(w).putInt(h).flip();
+		digest.update(bytes);
+		for (int y = 0; y < h; y++) {
+			texture.getRGB(0, y, w, 1, line, 0, w);
+			bytes.clear();
+			bytes.asIntBuffer().put(line);
+			bytes.limit(w * 4);
+			digest.update(bytes);
+		}
+		return ByteBuffer.wrap(digest.digest());
+	}
+
+	private void save(Texture texture, Path outFile, Map<ByteBuffer, Path> written, Map<Path, ByteBuffer> contentOf) throws IOException {
+		Path original = written.get(texture.content);
+		if (outFile.equals(original)) {
+			// same name and same pixels as an earlier row, the file is already correct
+			return;
+		}
+		// never write through an existing file in case it is a hard link to another sprite
+		Files.deleteIfExists(outFile);
+		if (original == null) {
+			Files.write(outFile, texture.png);
+			written.put(texture.content, outFile);
+		} else if (!hardLink || !tryLink(outFile, original)) {
+			// the encoded bytes are shared between duplicates so copying is just writing them again
+			Files.write(outFile, texture.png);
+		}
+		// a later row with the same name replaces the file, so it can no longer be used as an original
+		ByteBuffer replaced = contentOf.put(outFile, texture.content);
+		if (replaced != null && !replaced.equals(texture.content) && outFile.equals(written.get(replaced))) {
+			written.remove(replaced);
+		}
+	}
+
+	private static boolean tryLink(Path link, Path existing) {
+		try {
+			Files.createLink(link, existing);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			Utilities.PrintDebug(String.format("Could not hard link %s, copying instead.", link.getFileName()));
+			return false;
+		}
+	}
+
+}
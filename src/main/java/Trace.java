@@ -0,0 +1,229 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * structured debug tracing for the hot loops of the readers and writers
+ *
+ * every subsystem has its own level, events below it cost a field read and return a no-op event
+ * the event methods take primitives so a disabled event allocates nothing, e.g.
+ * 	Trace.READER.trace("element").with("layer", layer).with("m5", m5).emit();
+ * anything expensive to compute for an event should still be guarded with enabled/debug/trace
+ *
+ * events go to stdout as text or, with toJson, to a file as one json object per line
+ */
+public class Trace {
+
+	public enum Level { OFF, INFO, DEBUG, TRACE }
+
+	public static final Trace READER = new Trace("reader");
+	public static final Trace WRITER = new Trace("writer");
+	public static final Trace PACKER = new Trace("packer");
+	public static final Trace EXPORT = new Trace("export");
+	private static final Trace[] ALL = {READER, WRITER, PACKER, EXPORT};
+
+	private static final Event NOOP = new Event(null, null);
+	private static BufferedWriter json;
+
+	public final String name;
+	private volatile Level level = Level.OFF;
+	private final ThreadLocal<Event> events;
+
+	private Trace(String name) {
+		this.name = name;
+		this.events = ThreadLocal.withInitial(() -> new Event(this, new StringBuilder()));
+	}
+
+	public static void setAll(Level level) {
+		for (Trace trace : ALL) {
+			trace.level = level;
+		}
+	}
+
+	/*
+	 * sets levels from a comma separated list like "reader=trace,writer=debug"
+	 * "all" sets every subsystem
+	 */
+	public static void configure(String spec) {
+		for (String part : spec.split(",")) {
+			String[] pair = part.trim().split("=");
+			if (pair.length != 2) {
+				throw new IllegalArgumentException(String.format("Expected subsystem=level but got \"%s\".", part));
+			}
+			Level level = Level.valueOf(pair[1].trim().toUpperCase());
+			String subsystem = pair[0].trim().toLowerCase();
+			boolean found = false;
+			for (Trace trace : ALL) {
+				if (subsystem.equals("all") || trace.name.equals(subsystem)) {
+					trace.level = level;
+					found = true;
+				}
+			}
+			if (!found) {
+				throw new IllegalArgumentException(String.format("Unknown trace subsystem \"%s\".", subsystem));
+			}
+		}
+	}
+
+	// sends events to the file as json lines instead of printing them
+	public static synchronized void toJson(Path path) throws IOException {
+		json = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		Runtime.getRuntime().addShutdownHook(new Thread(Trace::close));
+	}
+
+	public static synchronized void close() {
+		if (json != null) {
+			try {
+				json.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			json = null;
+		}
+	}
+
+	public boolean enabled(Level level) {
+		return level != Level.OFF && level.compareTo(this.level) <= 0;
+	}
+
+	public boolean debug() {
+		return enabled(Level.DEBUG);
+	}
+
+	public boolean trace() {
+		return enabled(Level.TRACE);
+	}
+
+	public Event event(Level level, String name) {
+		if (!enabled(level)) return NOOP;
+		Event event = events.get();
+		event.begin(level, name);
+		return event;
+	}
+
+	public Event debug(String name) {
+		return event(Level.DEBUG, name);
+	}
+
+	public Event trace(String name) {
+		return event(Level.TRACE, name);
+	}
+
+	private static synchronized void write(Event event) {
+		if (json != null) {
+			try {
+				json.write(event.json());
+				json.newLine();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			PrintStream out = System.out;
+			out.println(event.text());
+		}
+	}
+
+	/*
+	 * an event being built, reused by its thread so only call emit once per event
+	 * fields are kept in text form as key=value pairs separated by spaces, strings are quoted
+	 */
+	public static class Event {
+		private final Trace trace;
+		private final StringBuilder fields;
+		private Level level;
+		private String name;
+
+		private Event(Trace trace, StringBuilder fields) {
+			this.trace = trace;
+			this.fields = fields;
+		}
+
+		private void begin(Level level, String name) {
+			this.level = level;
+			this.name = name;
+			fields.setLength(0);
+		}
+
+		private StringBuilder key(String key) {
+			return fields.append(fields.length() == 0 ? "" : " ").append(key).append('=');
+		}
+
+		public Event with(String key, int value) {
+			if (this != NOOP) key(key).append(value);
+			return this;
+		}
+
+		public Event with(String key, float value) {
+			if (this != NOOP) key(key).append(value);
+			return this;
+		}
+
+		public Event with(String key, double value) {
+			if (this != NOOP) key(key).append(value);
+			return this;
+		}
+
+		public Event with(String key, String value) {
+			if (this != NOOP) {
+				StringBuilder out = key(key).append('"');
+				for (int i = 0; value != null && i < value.length(); i++) {
+					char c = value.charAt(i);
+					if (c == '"' || c == '\\') {
+						out.append('\\').append(c);
+					} else if (c < 0x20) {
+						out.append(String.format("\\u%04x", (int) c));
+					} else {
+						out.append(c);
+					}
+				}
+				out.append('"');
+			}
+			return this;
+		}
+
+		public void emit() {
+			if (this != NOOP) write(this);
+		}
+
+		private String text() {
+			return trace.name + ' ' + name + (fields.length() == 0 ? "" : " " + fields);
+		}
+
+		// turns the key=value pairs into a json object, relies on keys not containing spaces or '='
+		private String json() {
+			StringBuilder out = new StringBuilder();
+			out.append("{\"subsystem\":\"").append(trace.name)
+					.append("\",\"level\":\"").append(level.name().toLowerCase())
+					.append("\",\"event\":\"").append(name).append('"');
+			int i = 0;
+			while (i < fields.length()) {
+				int equals = fields.indexOf("=", i);
+				out.append(",\"").append(fields, i, equals).append("\":");
+				int end;
+				if (fields.charAt(equals + 1) == '"') {
+					end = equals + 2;
+					while (fields.charAt(end) != '"') {
+						end += fields.charAt(end) == '\\' ? 2 : 1;
+					}
+					end++;
+				} else {
+					end = fields.indexOf(" ", equals);
+					if (end < 0) end = fields.length();
+				}
+				String value = fields.substring(equals + 1, end);
+				// json has no NaN or Infinity
+				if (value.equals("NaN") || value.endsWith("Infinity")) {
+					value = '"' + value + '"';
+				}
+				out.append(value);
+				i = end + 1;
+			}
+			return out.append('}').toString();
+		}
+	}
+
+}
@@ -1,90 +1,245 @@
-import java.io.File;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/*
+ * writes the scml file with an XMLStreamWriter, each section is written out as soon as it is computed
+ * so memory use is bounded by the largest bank instead of the whole document
+ *
+ * the output is byte for byte what the DOM + identity Transformer used to produce, which means
+ * attributes are written in alphabetical order and childless elements are self closing
+ * the one difference is that tabs and line breaks in names are no longer written as character references
+ *
+ * the mainline and timeline keys are only numbers so they skip the XMLStreamWriter and are built in a DecimalWriter
+ * that goes straight to the underlying writer, which is also what lets the transform be written with fewer decimals
+ */
 public class Writer {
 
 	private static final int MS_PER_S = 1000;
-
-	private Document scml;
+	private static final int BUFFER_SIZE = 1 << 16;
+	// matrices repeat across banks too so each thread keeps its cache for as long as it lives
+	private static final ThreadLocal<MatrixDecomposer> decomposers = ThreadLocal.withInitial(MatrixDecomposer::new);
+	private static final ThreadLocal<DecimalWriter> markup = ThreadLocal.withInitial(DecimalWriter::new);
+
+	private XMLOutputFactory factory;
+	private BufferedWriter file;
+	private XMLStreamWriter out;
+	// animations are written on this pool when there is more than one thread
+	private ForkJoinPool pool;
+	private int threads;
+	private final ArrayDeque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+	private final LongAdder workNanos = new LongAdder();
+	private final ThreadMXBean cpuTime = ManagementFactory.getThreadMXBean();
 	private List<BILDRow> BILDTable;
 	private BILD BILDData;
 	private ANIM ANIMData;
-	private Map<Integer, String> ANIMHash;
-	private Map<String, String> fileNameIndex;
-
-	public void init(List<BILDRow> BILDTable, BILD BILDData, ANIM ANIMData,
-					 Map<Integer, String> ANIMHash) throws ParserConfigurationException {
+	private Reader reader;
+	private List<ANIMIndex.BankEntry> banks;
+	// must be the table BILDTable's symbol ids refer to
+	private SymbolTable symbols;
+	// file id of each sprite, -1 for sprites that aren't in the build
+	private int[] fileOfSprite;
+
+	// only write the timeline keys and attributes that change, see timelineKeys
+	public boolean deltaKeys = false;
+	// how far apart two values can be and still count as the same in delta mode
+	public float deltaTolerance = 0;
+	// digits after the point in timeline keys, -1 writes the value exactly, see setDecimals
+	public int angleDecimals = -1;
+	public int scaleDecimals = -1;
+	public int positionDecimals = -1;
+
+	public void init(List<BILDRow> BILDTable, BILD BILDData, ANIM ANIMData, SymbolTable symbols) {
 		this.BILDTable = BILDTable;
 		this.BILDData = BILDData;
 		this.ANIMData = ANIMData;
-		this.ANIMHash = ANIMHash;
+		this.symbols = symbols;
+	}
+
+	/*
+	 * same as init but streams the anim data out of the reader one bank at a time when saving
+	 * so only the bank currently being written is held in memory
+	 */
+	public void init(List<BILDRow> BILDTable, BILD BILDData, Reader reader) throws IOException {
+		init(BILDTable, BILDData, reader, reader.indexANIMData().banks);
+	}
+
+	// streams only the given banks of the reader's anim data, see Reader.indexANIMData
+	public void init(List<BILDRow> BILDTable, BILD BILDData, Reader reader, List<ANIMIndex.BankEntry> banks) {
+		this.BILDTable = BILDTable;
+		this.BILDData = BILDData;
+		this.symbols = reader.symbols;
+		this.reader = reader;
+		this.banks = banks;
+	}
+
+	/*
+	 * "4,4,3" writes angles and scales with 4 decimals and positions with 3, a single number is used for all three
+	 * and "exact" writes them exactly like the default
+	 */
+	public void setDecimals(String decimals) {
+		if (decimals.equalsIgnoreCase("exact")) {
+			angleDecimals = scaleDecimals = positionDecimals = -1;
+			return;
+		}
+		String[] parts = decimals.split(",");
+		if (parts.length != 1 && parts.length != 3) {
+			throw new RuntimeException(String.format("Expected one or three numbers of decimals but got \"%s\".", decimals));
+		}
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			try {
+				values[i] = Integer.parseInt(parts[i].trim());
+			} catch (NumberFormatException e) {
+				values[i] = -1;
+			}
+			if (values[i] < 0 || values[i] > DecimalWriter.MAX_DECIMALS) {
+				throw new RuntimeException(String.format("The number of decimals \"%s\" must be between 0 and %d.",
+						parts[i], DecimalWriter.MAX_DECIMALS));
+			}
+		}
+		angleDecimals = values[0];
+		scaleDecimals = values[values.length == 3 ? 1 : 0];
+		positionDecimals = values[values.length == 3 ? 2 : 0];
+	}
+
+	public void save(Path path) throws IOException, XMLStreamException {
+		save(path, Main.settings.THREADS);
+	}
+
+	// writes the animations on the given number of threads, the output is the same for any number
+	public void save(Path path, int threads) throws IOException, XMLStreamException {
+		FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try (BufferedWriter file = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			save(file, threads);
+		}
+	}
+
+	/*
+	 * writes the scml to the stream as utf-8, e.g. as an entry of a zip archive
+	 * the stream is flushed but left open
+	 */
+	public void save(OutputStream stream, int threads) throws IOException, XMLStreamException {
+		BufferedWriter file = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+		save(file, threads);
+		file.flush();
+	}
 
-		initFile();
-		initFolderInfo();
-		initEntityInfo();
-		initAnimationInfo();
+	private void save(BufferedWriter file, int threads) throws IOException, XMLStreamException {
+		this.threads = threads;
+		factory = XMLOutputFactory.newInstance();
+		if (threads > 1) {
+			pool = new ForkJoinPool(threads);
+		}
+		try {
+			this.file = file;
+			// XMLStreamWriter can't write standalone="no" so the declaration is written by hand
+			file.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+			// keys are written to the file between flushes of out, which shouldn't push the file to disk each time
+			out = factory.createXMLStreamWriter(new FilterWriter(file) {
+				@Override
+				public void flush() {
+				}
+			});
+			writeSpriterData();
+			out.flush();
+			out.close();
+		} finally {
+			if (pool != null) {
+				for (ForkJoinTask<String> task : pending) {
+					task.cancel(true);
+				}
+				pool.shutdownNow();
+			}
+			pending.clear();
+			pool = null;
+			out = null;
+			this.file = null;
+		}
+	}
+
+	private static void attribute(XMLStreamWriter out, String name, String value) throws XMLStreamException {
+		// a null value used to be written as an empty attribute
+		if (value == null) value = "";
+		out.writeAttribute(name, value);
+	}
+
+	private static void attribute(XMLStreamWriter out, String name, int value) throws XMLStreamException {
+		out.writeAttribute(name, Integer.toString(value));
 	}
 
-	public void save(Path path) throws TransformerException, IOException {
-		TransformerFactory transformerFactory = TransformerFactory.newInstance();
-		Transformer transformer = transformerFactory.newTransformer();
-		DOMSource source = new DOMSource(scml);
-		FileWriter writer = new FileWriter(path.toFile());
-		StreamResult result = new StreamResult(writer);
-		transformer.transform(source, result);
+	private static void attribute(DecimalWriter text, String name, int value) {
+		text.append(' ').append(name).append("=\"").append(value).append('"');
 	}
 
-	private void initFile() throws ParserConfigurationException {
-		DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-		scml = documentBuilder.newDocument();
-		Element spriterData = scml.createElement("spriter_data");
-		scml.appendChild(spriterData);
-		spriterData.setAttribute("scml_version", "1.0");
-		spriterData.setAttribute("generator", "BrashMonkey Spriter");
-		spriterData.setAttribute("generator_version", "r11");
+	private static void attribute(DecimalWriter text, String name, double value, int decimals) {
+		text.append(' ').append(name).append("=\"").append(value, decimals).append('"');
 	}
 
-	private Element getElement(Document scml, String tagName) {
-		NodeList list = scml.getElementsByTagName(tagName);
-		return (Element) list.item(0);
+	private static void attribute(DecimalWriter text, String name, float value, int decimals) {
+		text.append(' ').append(name).append("=\"").append(value, decimals).append('"');
 	}
 
-	private void initFolderInfo() {
-		Element root = getElement(scml, "spriter_data");
+	// closes the start tag that is still open and flushes out, so what follows can go straight to raw
+	private static void startRaw(XMLStreamWriter out) throws XMLStreamException {
+		out.writeCharacters("");
+		out.flush();
+	}
+
+	// attributes of every element below are written in alphabetical order
+	private void writeSpriterData() throws XMLStreamException, IOException {
+		out.writeStartElement("spriter_data");
+		attribute(out, "generator", "BrashMonkey Spriter");
+		attribute(out, "generator_version", "r11");
+		attribute(out, "scml_version", "1.0");
+		writeFolderInfo();
+		writeEntityInfo();
+		out.writeEndElement();
+	}
 
+	private void writeFolderInfo() throws XMLStreamException {
 		int folders = 1;
 		for (int i = 0; i < folders; i++) {
-			Element folder = scml.createElement("folder");
-			folder.setAttribute("id", Integer.toString(i));
-			root.appendChild(folder);
+			if (BILDData.frames == 0) {
+				out.writeEmptyElement("folder");
+			} else {
+				out.writeStartElement("folder");
+			}
+			attribute(out, "id", i);
 
-			fileNameIndex = new HashMap<>();
+			fileOfSprite = new int[0];
 			for (int fileIndex = 0; fileIndex < BILDData.frames; fileIndex++) {
 				BILDRow row = BILDTable.get(fileIndex);
-				String key = row.name + "_" + row.index;
-				if (fileNameIndex.containsKey(key)) {
-					key += "_" + fileIndex;
+				int sprite = symbols.sprite(row.symbol, row.index);
+				if (sprite >= fileOfSprite.length) {
+					int size = fileOfSprite.length;
+					fileOfSprite = Arrays.copyOf(fileOfSprite, Math.max(sprite + 1, size * 2));
+					Arrays.fill(fileOfSprite, size, fileOfSprite.length, -1);
+				}
+				// the first file for a sprite is the one elements refer to
+				if (fileOfSprite[sprite] == -1) {
+					fileOfSprite[sprite] = fileIndex;
 				}
-				fileNameIndex.put(key, Integer.toString(fileIndex));
 
 				float x = row.pivotX - row.pivotWidth / 2f;
 				float y = row.pivotY - row.pivotHeight / 2f;
@@ -94,213 +249,409 @@ public class Writer {
 				float pivot_x = 0 - x / row.pivotWidth;
 				float pivot_y = 1 + y / row.pivotHeight;
 
-				Element file = scml.createElement("file");
-				file.setAttribute("id", Integer.toString(fileIndex));
-				file.setAttribute("name", row.name + "_" + row.index);
-				file.setAttribute("width", Integer.toString((int) row.w));
-				file.setAttribute("height", Integer.toString((int) row.h));
-				file.setAttribute("pivot_x", Float.toString(pivot_x));
-				file.setAttribute("pivot_y", Float.toString(pivot_y));
+				out.writeEmptyElement("file");
+				attribute(out, "height", (int) row.h);
+				attribute(out, "id", fileIndex);
+				attribute(out, "name", symbols.spriteName(sprite));
+				attribute(out, "pivot_x", Float.toString(pivot_x));
+				attribute(out, "pivot_y", Float.toString(pivot_y));
+				attribute(out, "width", (int) row.w);
+			}
+			if (BILDData.frames != 0) {
+				out.writeEndElement();
+			}
+		}
+	}
 
-				folder.appendChild(file);
+	private void writeEntityInfo() throws XMLStreamException, IOException {
+		boolean empty = reader == null ? ANIMData.anims == 0 : banks.isEmpty();
+		if (empty) {
+			out.writeEmptyElement("entity");
+		} else {
+			out.writeStartElement("entity");
+		}
+		attribute(out, "id", 0);
+		attribute(out, "name", BILDTable.get(0).bild.name);
+		if (empty) return;
+
+		long start = System.nanoTime();
+		int anims;
+		if (reader == null) {
+			anims = ANIMData.anims;
+			for (int animIndex = 0; animIndex < ANIMData.anims; animIndex++) {
+				submitAnimation(ANIMData.animList.get(animIndex), animIndex);
 			}
+		} else {
+			anims = banks.size();
+			reader.visitANIMData(new ANIMBuilder(reader.symbols, true) {
+				private int animIndex = 0;
+
+				@Override
+				protected void bankBuilt(ANIMBank bank) {
+					try {
+						submitAnimation(bank, animIndex++);
+					} catch (XMLStreamException | IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}, banks);
+		}
+		while (!pending.isEmpty()) {
+			writeFragment(pending.poll().join());
+		}
+		if (pool != null && Trace.WRITER.debug()) {
+			long wall = System.nanoTime() - start;
+			Trace.WRITER.debug("animations").with("count", anims).with("threads", threads)
+					.with("ms", (int) (wall / 1000000)).with("cpuMs", (int) (workNanos.sum() / 1000000))
+					.with("parallel", (double) workNanos.sum() / wall).emit();
 		}
+		out.writeEndElement();
 	}
 
-	private void initEntityInfo() {
-		Element root = getElement(scml, "spriter_data");
-		Element entity = scml.createElement("entity");
-		entity.setAttribute("id", "0");
-		entity.setAttribute("name", BILDTable.get(0).bild.name);
-		root.appendChild(entity);
+	/*
+	 * works out the bank's timelines and hands it to the pool to be written, or writes it straight away with one thread
+	 * finished animations are copied to the file in bank order, and at most two per thread are waiting at a time
+	 * so streaming from a reader still only holds a few banks in memory
+	 */
+	private void submitAnimation(ANIMBank bank, int animIndex) throws XMLStreamException, IOException {
+		ANIMColumns columns = bank.columns != null ? bank.columns : ANIMColumns.of(bank.framesList);
+		// resolving interns sprites into the symbol table so it has to happen here, after this the table is only read
+		BankTimelines resolved = resolveTimelines(bank, columns);
+		if (pool == null) {
+			writeAnimation(out, file, bank, columns, resolved, animIndex);
+			return;
+		}
+
+		StringWriter fragment = new StringWriter();
+		XMLStreamWriter fragmentOut = factory.createXMLStreamWriter(fragment);
+		pending.add(pool.submit(() -> {
+			// cpu time so that threads waiting for a core don't count as work
+			long start = cpuTime.getCurrentThreadCpuTime();
+			writeAnimation(fragmentOut, fragment, bank, columns, resolved, animIndex);
+			fragmentOut.close();
+			workNanos.add(cpuTime.getCurrentThreadCpuTime() - start);
+			return fragment.toString();
+		}));
+		while (pending.size() > 2 * threads) {
+			writeFragment(pending.poll().join());
+		}
+	}
+
+	private void writeFragment(String fragment) throws XMLStreamException, IOException {
+		// the entity's start tag may still be open
+		startRaw(out);
+		file.write(fragment);
+	}
+
+	// raw is the writer out writes to
+	private void writeAnimation(XMLStreamWriter out, java.io.Writer raw, ANIMBank bank, ANIMColumns columns,
+								BankTimelines resolved, int animIndex) throws XMLStreamException, IOException {
+		int rate = (int) (MS_PER_S / bank.rate);
+
+		out.writeStartElement("animation");
+		attribute(out, "id", animIndex);
+		attribute(out, "interval", rate);
+		attribute(out, "length", rate * bank.frames);
+		attribute(out, "name", bank.name);
+
+		TimelineKeys keys = timelineKeys(columns, resolved);
+		writeMainlineInfo(out, raw, bank, columns, resolved, keys);
+		writeTimelineInfo(out, raw, bank, columns, resolved, keys);
+		out.writeEndElement();
 	}
 
-	private void initAnimationInfo() {
-		Element root = getElement(scml, "entity");
+	// the transform attributes in the order they are written, and the values spriter uses when they are left out
+	private static final String[] TRANSFORM = {"angle", "scale_x", "scale_y", "x", "y"};
+	private static final float[] TRANSFORM_DEFAULTS = {0, 1, 1, 0, 0};
+
+	/*
+	 * the decomposed transform of every element of a bank, indexed like BankTimelines
+	 * with deltaKeys it also says which timeline keys and attributes are written
+	 */
+	private static class TimelineKeys {
+		double[] scaleX, scaleY, angle;
+		// the frame of the timeline key each element's object_ref points at
+		int[] keyOf;
+		// whether the element gets a timeline key
+		boolean[] kept;
+		// bit i is set when TRANSFORM[i] is left out of the element's key
+		byte[] omitted;
+	}
 
-		for (int animIndex = 0; animIndex < ANIMData.anims; animIndex++) {
-			ANIMBank bank = ANIMData.animList.get(animIndex);
-			int rate = (int) (MS_PER_S / bank.rate);
+	/*
+	 * in delta mode a key is left out when the kept key before it and the key after it have the same file and
+	 * transform as it, so tweening from one to the other still gives the same pose
+	 * the object_refs of the frames it covered point at the kept key before it instead
+	 *
+	 * an attribute is left out when it is the same as in the kept key before it and is spriter's default value too
+	 * spriter reads a missing attribute as the default and ScmlConverter reads it as the previous key's value
+	 * so it has to be both to read back the same way everywhere
+	 * values are compared as the floats the written text parses to, within deltaTolerance
+	 */
+	private TimelineKeys timelineKeys(ANIMColumns columns, BankTimelines resolved) {
+		int elements = columns.elements;
+		TimelineKeys keys = new TimelineKeys();
+		keys.scaleX = new double[elements];
+		keys.scaleY = new double[elements];
+		keys.angle = new double[elements];
+		decomposers.get().decompose(columns.m1, columns.m2, columns.m3, columns.m4, 0, elements,
+				keys.scaleX, keys.scaleY, keys.angle);
+		keys.keyOf = resolved.frame;
+		if (!deltaKeys) return keys;
+
+		float[] values = new float[elements * TRANSFORM.length];
+		for (int ele = 0; ele < elements; ele++) {
+			int at = ele * TRANSFORM.length;
+			values[at] = DecimalWriter.rounded(keys.angle[ele], angleDecimals);
+			values[at + 1] = DecimalWriter.rounded(keys.scaleX[ele], scaleDecimals);
+			values[at + 2] = DecimalWriter.rounded(keys.scaleY[ele], scaleDecimals);
+			values[at + 3] = DecimalWriter.rounded(x(columns, ele), positionDecimals);
+			values[at + 4] = DecimalWriter.rounded(y(columns, ele), positionDecimals);
+		}
 
-			Element animation = scml.createElement("animation");
-			animation.setAttribute("id", Integer.toString(animIndex));
-			animation.setAttribute("name", bank.name);
-			animation.setAttribute("length", Integer.toString(rate * bank.frames));
-			animation.setAttribute("interval", Integer.toString(rate));
-			root.appendChild(animation);
+		keys.keyOf = new int[elements];
+		keys.kept = new boolean[elements];
+		keys.omitted = new byte[elements];
+		for (int timeline = 0; timeline < resolved.timelines; timeline++) {
+			int end = resolved.timelineStart[timeline + 1];
+			int last = -1;
+			for (int i = resolved.timelineStart[timeline]; i < end; i++) {
+				int ele = resolved.byTimeline[i];
+				int next = i + 1 < end ? resolved.byTimeline[i + 1] : -1;
+				if (last != -1 && next != -1 && samePose(resolved, values, last, ele) && samePose(resolved, values, ele, next)) {
+					keys.keyOf[ele] = resolved.frame[last];
+					continue;
+				}
+				keys.kept[ele] = true;
+				keys.keyOf[ele] = resolved.frame[ele];
+				if (last != -1) {
+					for (int a = 0; a < TRANSFORM.length; a++) {
+						float value = values[ele * TRANSFORM.length + a];
+						if (Math.abs(value - values[last * TRANSFORM.length + a]) <= deltaTolerance
+								&& Math.abs(value - TRANSFORM_DEFAULTS[a]) <= deltaTolerance) {
+							keys.omitted[ele] |= 1 << a;
+						}
+					}
+				}
+				last = ele;
+			}
+		}
+		return keys;
+	}
 
-			initMainlineInfo(animation, animIndex);
-			initTimelineInfo(animation, animIndex);
+	private boolean samePose(BankTimelines resolved, float[] values, int a, int b) {
+		if (fileOf(resolved.sprite[a]) != fileOf(resolved.sprite[b])) return false;
+		for (int i = 0; i < TRANSFORM.length; i++) {
+			if (Math.abs(values[a * TRANSFORM.length + i] - values[b * TRANSFORM.length + i]) > deltaTolerance) return false;
 		}
+		return true;
+	}
+
+	private static float x(ANIMColumns columns, int ele) {
+		return (float) (+columns.m5[ele]*0.5f);
 	}
 
-	private String nameOf(ANIMElement ele) {
-		return ANIMHash.get(ele.image)  + '_' + ele.index;
+	private static float y(ANIMColumns columns, int ele) {
+		return (float) (-columns.m6[ele]*0.5f);
 	}
 
-	private String nameOf(ANIMElement ele, Map<String, Integer> occurrenceMap) {
-		return nameOf(ele, occurrenceMap.get(nameOf(ele)));
+	private int spriteOf(ANIMColumns columns, int ele) {
+		return symbols.sprite(symbols.idOf(columns.image[ele]), columns.index[ele]);
 	}
 
-	private String nameOf(ANIMElement ele, int occurrenceNumber) {
-		return nameOf(ele) + '_' + occurrenceNumber;
+	private int fileOf(int sprite) {
+		return sprite < fileOfSprite.length ? fileOfSprite[sprite] : -1;
 	}
 
-	private String nameOf(String baseName, int occurrenceNumber) {
-		return baseName + '_' + occurrenceNumber;
+	/*
+	 * the timeline every element of a bank belongs to, worked out once and shared by the mainline and timeline writers
+	 * indexed by the element's index in the bank's columns, i.e. its frame's start plus its slot in the frame
+	 */
+	private static class BankTimelines {
+		int timelines;
+		// sprite, timeline and frame of each element
+		int[] sprite, timeline, frame;
+		// first timeline of each sprite by sprite id, -1 for sprites that aren't in the bank
+		int[] firstTimeline;
+		// the elements grouped by timeline in frame order, timeline t has byTimeline[timelineStart[t]] up to timelineStart[t + 1]
+		int[] byTimeline, timelineStart;
+		// names are looked up here so writing the bank doesn't touch the symbol table
+		String[] names;
 	}
 
-	private SortedMap<String, Integer> buildAnimHistogram(ANIMBank bank) {
-		SortedMap<String, Integer> perFrameHistogram = new TreeMap<>();
-		SortedMap<String, Integer> overallHistogram = new TreeMap<>();
+	/*
+	 * every sprite in the bank gets one timeline for each copy of it that is visible in the same frame
+	 * the timelines are numbered in order of the sprites' names and then copies
+	 * and the nth copy of a sprite within a frame goes on the sprite's nth timeline
+	 */
+	private BankTimelines resolveTimelines(ANIMBank bank, ANIMColumns columns) {
+		BankTimelines resolved = new BankTimelines();
+		int elements = columns.elements;
+		int[] sprites = new int[elements];
+		int[] frames = new int[elements];
 		for (int frame = 0; frame < bank.frames; frame++) {
-			// build per frame histogram
-			perFrameHistogram.clear();
-			for (int element = 0; element < bank.framesList.get(frame).elements; element++) {
-				ANIMElement ele = bank.framesList.get(frame).elementsList.get(element);
-				String name = nameOf(ele);
-				if (perFrameHistogram.containsKey(name)) {
-					perFrameHistogram.put(name, perFrameHistogram.get(name) + 1);
-				} else {
-					perFrameHistogram.put(name, 1);
-				}
+			for (int ele = columns.start(frame); ele < columns.end(frame); ele++) {
+				sprites[ele] = spriteOf(columns, ele);
+				frames[ele] = frame;
 			}
-			// update overall histogram if maximums are found
-			for (String name : perFrameHistogram.keySet()) {
-				if (!overallHistogram.containsKey(name) || overallHistogram.get(name) < perFrameHistogram.get(name)) {
-					overallHistogram.put(name, perFrameHistogram.get(name));
+		}
+
+		// the most copies of each sprite visible in one frame
+		int[] perFrame = new int[symbols.spriteCount()];
+		int[] copies = new int[symbols.spriteCount()];
+		int used = 0;
+		for (int frame = 0; frame < bank.frames; frame++) {
+			for (int ele = columns.start(frame); ele < columns.end(frame); ele++) {
+				int count = ++perFrame[sprites[ele]];
+				if (count > copies[sprites[ele]]) {
+					if (count == 1) used++;
+					copies[sprites[ele]] = count;
 				}
 			}
+			for (int ele = columns.start(frame); ele < columns.end(frame); ele++) {
+				perFrame[sprites[ele]] = 0;
+			}
 		}
-		return overallHistogram;
-	}
 
-	private Map<String, Integer> buildIdMap(ANIMBank bank) {
-		SortedMap<String, Integer> histogram = buildAnimHistogram(bank);
-		Map<String, Integer> idMap = new HashMap<>();
-		int index  = 0;
-		for (String name : histogram.keySet()) {
-			for (int i = 0; i < histogram.get(name); i++) {
-					idMap.put(nameOf(name, i), index++);
+		int[] order = new int[used];
+		int n = 0;
+		for (int sprite = 0; sprite < copies.length; sprite++) {
+			if (copies[sprite] == 0) continue;
+			// insertion sort by name, banks only use a few dozen sprites
+			String name = symbols.spriteName(sprite);
+			int i = n++;
+			while (i > 0 && symbols.spriteName(order[i - 1]).compareTo(name) > 0) {
+				order[i] = order[i - 1];
+				i--;
 			}
+			order[i] = sprite;
 		}
-		return idMap;
-	}
 
-	private Element buildKeyFrame(int frame, int rate) {
-		Element key = scml.createElement("key");
-		key.setAttribute("id", Integer.toString(frame));
-		key.setAttribute("time", Integer.toString(frame * rate));
-		return key;
-	}
+		int[] firstTimeline = new int[copies.length];
+		Arrays.fill(firstTimeline, -1);
+		int timelines = 0;
+		for (int sprite : order) {
+			firstTimeline[sprite] = timelines;
+			timelines += copies[sprite];
+		}
 
-	private void updateOccurrenceMap(ANIMElement ele, Map<String, Integer> occurrenceMap) {
-		String name = nameOf(ele);
-		if (!occurrenceMap.containsKey(name)) {
-			occurrenceMap.put(name, 0);
-		} else {
-			occurrenceMap.put(name, occurrenceMap.get(name) + 1);
+		// perFrame is all zeros again and now counts the copies seen so far in the frame
+		int[] timeline = new int[elements];
+		int[] timelineStart = new int[timelines + 1];
+		for (int frame = 0; frame < bank.frames; frame++) {
+			for (int ele = columns.start(frame); ele < columns.end(frame); ele++) {
+				timeline[ele] = firstTimeline[sprites[ele]] + perFrame[sprites[ele]]++;
+				timelineStart[timeline[ele] + 1]++;
+			}
+			for (int ele = columns.start(frame); ele < columns.end(frame); ele++) {
+				perFrame[sprites[ele]] = 0;
+			}
+		}
+
+		// counting sort of the elements by timeline, stable so each timeline stays in frame order
+		for (int t = 0; t < timelines; t++) {
+			timelineStart[t + 1] += timelineStart[t];
+		}
+		int[] byTimeline = new int[elements];
+		int[] next = Arrays.copyOf(timelineStart, timelines);
+		for (int ele = 0; ele < elements; ele++) {
+			byTimeline[next[timeline[ele]]++] = ele;
+		}
+
+		resolved.timelines = timelines;
+		resolved.sprite = sprites;
+		resolved.timeline = timeline;
+		resolved.frame = frames;
+		resolved.firstTimeline = firstTimeline;
+		resolved.byTimeline = byTimeline;
+		resolved.timelineStart = timelineStart;
+		resolved.names = new String[timelines];
+		for (int sprite : order) {
+			for (int copy = 0; copy < copies[sprite]; copy++) {
+				resolved.names[firstTimeline[sprite] + copy] = symbols.spriteName(sprite) + '_' + copy;
+			}
 		}
+		return resolved;
 	}
 
-	private void initMainlineInfo(Element parent, int animIndex) {
-		Element mainline = scml.createElement("mainline");
-		parent.appendChild(mainline);
+	private void writeMainlineInfo(XMLStreamWriter out, java.io.Writer raw, ANIMBank bank, ANIMColumns columns,
+								   BankTimelines resolved, TimelineKeys keys) throws XMLStreamException, IOException {
+		if (bank.frames == 0) {
+			out.writeEmptyElement("mainline");
+			return;
+		}
+		out.writeStartElement("mainline");
+		startRaw(out);
 
-		ANIMBank bank = ANIMData.animList.get(animIndex);
+		DecimalWriter text = markup.get();
 		int rate = (int) (MS_PER_S / bank.rate); // convert provided fps rate to number of ms per frame
-		Map<String, Integer> idMap = buildIdMap(bank);
-		Map<String, Integer> occurrenceMap = new HashMap<>();
-
 		for (int frame = 0; frame < bank.frames; frame++) {
-			Element key = buildKeyFrame(frame, rate);
-			occurrenceMap.clear();
-			for (int element = 0; element < bank.framesList.get(frame).elements; element++) {
-				Element object_ref = scml.createElement("object_ref");
-				ANIMElement ele = bank.framesList.get(frame).elementsList.get(element);
-				updateOccurrenceMap(ele, occurrenceMap);
-				String name = nameOf(ele, occurrenceMap);
-				Utilities.PrintDebug(name);
-				object_ref.setAttribute("id", Integer.toString(idMap.get(name)));
-				object_ref.setAttribute("timeline", Integer.toString(idMap.get(name)));
+			int elements = columns.elementCount(frame);
+			text.append("<key");
+			attribute(text, "id", frame);
+			attribute(text, "time", frame * rate);
+			if (elements == 0) {
+				text.append("/>");
+				continue;
+			}
+			text.append('>');
+			for (int element = 0; element < elements; element++) {
+				int ele = columns.start(frame) + element;
+				int timeline = resolved.timeline[ele];
+				Trace.WRITER.trace("object_ref").with("sprite", resolved.sprite[ele]).with("timeline", timeline).with("frame", frame).emit();
+				text.append("<object_ref");
+				attribute(text, "id", timeline);
 				// b/c ONI has animation properties for each element specified at every frame the timeline key frame that
 				// matches a mainline key frame is always the same
-				object_ref.setAttribute("key", Integer.toString(frame));
-				object_ref.setAttribute("z_index", Integer.toString(bank.framesList.get(frame).elements - element));
-
-				key.appendChild(object_ref);
+				attribute(text, "key", keys.keyOf[ele]);
+				attribute(text, "timeline", timeline);
+				attribute(text, "z_index", elements - element);
+				text.append("/>");
+			}
+			text.append("</key>");
+			if (text.length() >= BUFFER_SIZE) {
+				text.writeTo(raw);
 			}
-			mainline.appendChild(key);
 		}
+		text.writeTo(raw);
+		out.writeEndElement();
 	}
 
-	private void initTimelineInfo(Element parent, int animIndex) {
-		ANIMBank bank = ANIMData.animList.get(animIndex);
+	private void writeTimelineInfo(XMLStreamWriter out, java.io.Writer raw, ANIMBank bank, ANIMColumns columns,
+								   BankTimelines resolved, TimelineKeys keys) throws XMLStreamException, IOException {
+		DecimalWriter text = markup.get();
 		int rate = (int) (MS_PER_S / bank.rate); // convert provided fps rate to number of ms per frame
-		Map<Integer, Element> timelineMap = new HashMap<>();
-		Map<String, Integer> idMap = buildIdMap(bank);
-		for (String name : idMap.keySet()) {
-			Element timeline = scml.createElement("timeline");
-			timeline.setAttribute("id", Integer.toString(idMap.get(name)));
-			timeline.setAttribute("name", name);
-			timelineMap.put(idMap.get(name), timeline);
-		}
-		Map<String, Integer> occurrenceMap = new HashMap<>();
-		for (int frame = 0; frame < bank.frames; frame++) {
-			occurrenceMap.clear();
-			for (int element = 0; element < bank.framesList.get(frame).elements; element++) {
-				Element key = buildKeyFrame(frame, rate);
-				ANIMElement ele = bank.framesList.get(frame).elementsList.get(element);
-				updateOccurrenceMap(ele, occurrenceMap);
-				String name = nameOf(ele, occurrenceMap);
-				// is part of the formula for decomposing transformation matrix into components
-				// see https://math.stackexchange.com/questions/237369/given-this-transformation-matrix-how-do-i-decompose-it-into-translation-rotati
-				double scale_x = Math.sqrt(ele.m1 * ele.m1 + ele.m2 * ele.m2);
-				double scale_y = Math.sqrt(ele.m3 * ele.m3 + ele.m4 * ele.m4);
-
-				double det = ele.m1 * ele.m4 - ele.m3 * ele.m2;
-				if (det < 0) {
-					scale_y = -scale_y;
-				}
-
-				// still part of the formula for obtaining rotation component from combined rotation + scaling
-				// undue scaling by dividing by scaling and then taking average value of sin/cos to make it more
-				// accurate (b/c sin and cos appear twice each in 2d rotation matrix)
-				double sin_approx = 0.5 * (ele.m3 / scale_y - ele.m2 / scale_x);
-				double cos_approx = 0.5 * (ele.m1 / scale_x + ele.m4 / scale_y);
-				double m1 = Math.max(Math.min(ele.m1 / scale_x, 1f), -1f);
-				double m2 = Math.max(Math.min(ele.m2 / scale_x, 1f), -1f);
-				double m3 = Math.max(Math.min(ele.m3 / scale_y, 1f), -1f);
-				double m4 = Math.max(Math.min(ele.m4 / scale_y, 1f), -1f);
-
-				double angle = Math.atan2(sin_approx, cos_approx);
-				// it seems as if the notion of simply haveing x,y, angle and scale are not really sufficient to describe the
-				// transformation applied to each point since the 2x3 matrix m1...m6 doesn't nicely decompose into a valid rotation matrix
-				// basically the two components that are sin are not equal and the two components that are cos are not equal. This would imply
-				// that there is some additional transformation being applied to each point in addition to just the scale and rotation information
-				// that makes it such that when we just look at that rotation information it does not produce the correct result
-
-				if (angle < 0) {
-					angle += 2 * Math.PI;
+		for (int timeline = 0; timeline < resolved.timelines; timeline++) {
+			out.writeStartElement("timeline");
+			attribute(out, "id", timeline);
+			attribute(out, "name", resolved.names[timeline]);
+			startRaw(out);
+			for (int i = resolved.timelineStart[timeline]; i < resolved.timelineStart[timeline + 1]; i++) {
+				int ele = resolved.byTimeline[i];
+				if (keys.kept != null && !keys.kept[ele]) continue;
+				int omitted = keys.omitted != null ? keys.omitted[ele] : 0;
+				int frame = resolved.frame[ele];
+				text.append("<key");
+				attribute(text, "id", frame);
+				attribute(text, "time", frame * rate);
+				text.append("><object");
+				if ((omitted & 1) == 0) attribute(text, "angle", keys.angle[ele], angleDecimals);
+				int file = fileOf(resolved.sprite[ele]);
+				if (file == -1) {
+					// a missing file used to be written as an empty attribute
+					text.append(" file=\"\"");
+				} else {
+					attribute(text, "file", file);
 				}
-				angle *= 180 / Math.PI;
-				Element objectDef = scml.createElement("object");
-				objectDef.setAttribute("folder", "0");
-				String fileName = nameOf(ele);
-				objectDef.setAttribute("file", fileNameIndex.get(fileName));
-				objectDef.setAttribute("x", Float.toString((float) (+ele.m5*0.5f)));
-				objectDef.setAttribute("y", Float.toString((float) (-ele.m6*0.5f)));
-				objectDef.setAttribute("angle", Double.toString(angle));
-				objectDef.setAttribute("scale_x", Double.toString(scale_x));
-				objectDef.setAttribute("scale_y", Double.toString(scale_y));
-
-				key.appendChild(objectDef);
-				timelineMap.get(idMap.get(name)).appendChild(key);
+				text.append(" folder=\"0\"");
+				if ((omitted & 2) == 0) attribute(text, "scale_x", keys.scaleX[ele], scaleDecimals);
+				if ((omitted & 4) == 0) attribute(text, "scale_y", keys.scaleY[ele], scaleDecimals);
+				if ((omitted & 8) == 0) attribute(text, "x", x(columns, ele), positionDecimals);
+				if ((omitted & 16) == 0) attribute(text, "y", y(columns, ele), positionDecimals);
+				text.append("/></key>");
 			}
-		}
-
-		for (Element timeline : timelineMap.values()) {
-			parent.appendChild(timeline);
+			text.writeTo(raw);
+			out.writeEndElement();
 		}
 	}
 